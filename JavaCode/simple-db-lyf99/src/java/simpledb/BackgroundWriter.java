@@ -0,0 +1,69 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BackgroundWriter trickles the dirty pages of a BufferPool to disk on a
+ * background thread, a few at a time, so that checkpoints, commits and
+ * evictions find fewer of them to write. See
+ * {@link BufferPool#setBackgroundWriter}.
+ * <p>
+ * As with {@link Checkpointer}, the thread is a daemon, started the first
+ * time the writer is turned on, and Database.reset stops it when it drops
+ * the pool.
+ */
+class BackgroundWriter {
+    private final BufferPool pool;
+    private ScheduledThreadPoolExecutor executor;
+    private ScheduledFuture<?> periodic;
+    private boolean stopped = false;
+
+    BackgroundWriter(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Writes up to maxPages dirty pages every intervalMillis milliseconds
+     * from now on, or stops writing if intervalMillis is 0.
+     */
+    synchronized void configure(long intervalMillis, int maxPages) {
+        if (this.periodic != null) {
+            this.periodic.cancel(false);
+            this.periodic = null;
+        }
+        if (intervalMillis == 0 || this.stopped) {
+            return;
+        }
+        if (this.executor == null) {
+            this.executor = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread t = new Thread(r, "simpledb-background-writer");
+                t.setDaemon(true);
+                return t;
+            });
+            this.executor.setRemoveOnCancelPolicy(true);
+        }
+        this.periodic = this.executor.scheduleWithFixedDelay(() -> {
+            try {
+                this.pool.writeBack(maxPages);
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops for good. A round under way finishes; it is not interrupted,
+     * since that would close the channels it is writing to.
+     */
+    synchronized void stop() {
+        this.stopped = true;
+        if (this.executor != null) {
+            this.executor.shutdown();
+            this.executor = null;
+        }
+        this.periodic = null;
+    }
+}
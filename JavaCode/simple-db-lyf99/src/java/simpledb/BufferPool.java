@@ -26,22 +26,90 @@ public class BufferPool {
      constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Default number of pages a sequential scan reads ahead. */
+    public static final int DEFAULT_READ_AHEAD = 8;
+
+    /** Default number of dirty pages the background writer writes per round. */
+    public static final int DEFAULT_WRITE_BACK_PAGES = 16;
+
     private int numPages = DEFAULT_PAGES;
     private Map<PageId, Page> cache;
-    private Deque<PageId> dirtyPageIds; // double linked list
+    private ReplacementPolicy replacementPolicy;
     private LockManager lockManager;
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * The pages each running transaction may have dirtied: those it fetched
+     * READ_WRITE and those it changed through insertTuple or deleteTuple.
+     * Commit and abort only look at these pages rather than at the whole
+     * cache. A page stays in the set after it is flushed by eviction, since
+     * the transaction's before-image still has to be reset at commit.
+     */
+    private Map<TransactionId, Set<PageId>> dirtiedPages;
+
+    /**
+     * The committed page versions kept for snapshot readers, or null if
+     * snapshot isolation is off; see {@link #setSnapshotIsolation}.
+     */
+    private volatile VersionStore versions;
+
+    /** The snapshot timestamp of each running read-only transaction. */
+    private Map<TransactionId, Long> snapshots;
+
+    private volatile int readAheadWindow = DEFAULT_READ_AHEAD;
+    private volatile boolean scanResistant = false;
+    private final ReadAhead readAhead = new ReadAhead(this);
+
+    private long writeBackIntervalMillis = 0;
+    private int writeBackPages = DEFAULT_WRITE_BACK_PAGES;
+    private final BackgroundWriter backgroundWriter = new BackgroundWriter(this);
+
+    /**
+     * Counts the pages written to disk or dropped from the pool. Pages read
+     * ahead are only added if it has not changed since they were read, so
+     * they can never replace a newer version. Guarded by this.
+     */
+    private long generation = 0;
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, evicting with
+     * the CLOCK policy.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, new ClockReplacementPolicy(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and asks the
+     * given policy which page to give up when it is full.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param replacementPolicy the page replacement policy to use
+     */
+    public BufferPool(int numPages, ReplacementPolicy replacementPolicy) {
+        this(numPages, replacementPolicy, new LockManager());
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, asks the given
+     * policy which page to give up when it is full, and locks pages through
+     * the given LockManager. Use this to pick the deadlock handling, e.g.
+     * {@code new LockManager(LockManager.DeadlockPolicy.WOUND_WAIT,
+     * LockManager.VictimPolicy.REQUESTER)}.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param replacementPolicy the page replacement policy to use
+     * @param lockManager the lock manager to use
+     */
+    public BufferPool(int numPages, ReplacementPolicy replacementPolicy, LockManager lockManager) {
         // some code goes here
         this.numPages = numPages;
         this.cache = new ConcurrentHashMap<>();
-        this.dirtyPageIds = new LinkedList<>();
-        this.lockManager = new LockManager();
+        this.replacementPolicy = replacementPolicy;
+        this.lockManager = lockManager;
+        this.dirtiedPages = new ConcurrentHashMap<>();
+        this.snapshots = new ConcurrentHashMap<>();
     }
 
     public static int getPageSize() {
@@ -58,6 +126,175 @@ public class BufferPool {
         BufferPool.pageSize = DEFAULT_PAGE_SIZE;
     }
 
+    /**
+     * Turns snapshot isolation for read-only transactions on or off. While
+     * it is on, a transaction started with {@code new Transaction(true)}
+     * reads the committed state of the database as of its start, takes no
+     * locks and never waits for writers; while it is off, read-only
+     * transactions lock pages like any other. Only call this while no
+     * transaction is running.
+     */
+    public void setSnapshotIsolation(boolean on) {
+        this.versions = on ? new VersionStore(this::readCommitted) : null;
+    }
+
+    /**
+     * Configures read-ahead for sequential scans. Once a scan of a HeapFile
+     * has read two pages in a row, the pages after them are read into the
+     * pool in the background, in batches, up to window pages ahead of the
+     * scan. The window never exceeds a quarter of the pool. Files that
+     * read pages their own way, such as MappedHeapFile, are not read ahead.
+     *
+     * @param window the number of pages to read ahead; 0 turns read-ahead off
+     * @param scanResistant if true, a scan tells the replacement policy when
+     *        it is done with a page, so that a large scan evicts its own
+     *        pages rather than the ones in regular use
+     */
+    public void setReadAhead(int window, boolean scanResistant) {
+        this.readAheadWindow = Math.max(0, window);
+        this.scanResistant = scanResistant;
+    }
+
+    /**
+     * @return the number of pages sequential scans read ahead, or 0 if
+     *         read-ahead is off
+     */
+    public int getReadAheadWindow() {
+        return Math.min(this.readAheadWindow, this.numPages / 4);
+    }
+
+    /**
+     * @return true if scans should report the pages they are done with
+     *         through {@link #pageScanned}
+     */
+    public boolean isScanResistant() {
+        return this.scanResistant;
+    }
+
+    /**
+     * Turns the background writer on or off. While it is on, every
+     * intervalMillis milliseconds up to maxPages dirty pages are logged and
+     * written to disk, and stay in the pool clean, so that commits and
+     * evictions find fewer dirty pages to write. It is off by default.
+     *
+     * @param intervalMillis the time between rounds; 0 turns it off
+     * @param maxPages the most pages written per round
+     * @throws IllegalArgumentException if intervalMillis is negative or
+     *         maxPages is not positive
+     */
+    public synchronized void setBackgroundWriter(long intervalMillis, int maxPages) {
+        if (intervalMillis < 0 || maxPages < 1) {
+            throw new IllegalArgumentException("bad background writer interval " + intervalMillis
+                    + " or page count " + maxPages);
+        }
+        this.writeBackIntervalMillis = intervalMillis;
+        this.writeBackPages = maxPages;
+        this.backgroundWriter.configure(intervalMillis, maxPages);
+    }
+
+    /**
+     * @return the milliseconds between rounds of the background writer, or
+     *         0 if it is off
+     */
+    public synchronized long getBackgroundWriterInterval() {
+        return this.writeBackIntervalMillis;
+    }
+
+    /** @return the most pages the background writer writes per round */
+    public synchronized int getBackgroundWriterPages() {
+        return this.writeBackPages;
+    }
+
+    // stops the background writer for good; Database drops the pool
+    void stopBackgroundWriter() {
+        this.backgroundWriter.stop();
+    }
+
+    /**
+     * Writes up to maxPages dirty pages to disk, logging them first, and
+     * leaves them in the pool clean. The background writer calls this.
+     *
+     * @return the number of pages written
+     */
+    synchronized int writeBack(int maxPages) throws IOException {
+        List<PageId> dirty = new ArrayList<>();
+        for (Map.Entry<PageId, Page> e : this.cache.entrySet()) {
+            if (dirty.size() >= maxPages) {
+                break;
+            }
+            if (e.getValue().isDirty() != null) {
+                dirty.add(e.getKey());
+            }
+        }
+        flushPages(dirty);
+        return dirty.size();
+    }
+
+    /**
+     * Reads the specified pages of file into the pool in the background.
+     * HeapFile's iterator calls this for sequential scans.
+     */
+    void readAhead(DbFile file, List<PageId> pids) {
+        this.readAhead.schedule(file, pids);
+    }
+
+    synchronized long generation() {
+        return this.generation;
+    }
+
+    /**
+     * Adds pages read ahead, unless a page has been written or dropped since
+     * the given generation. Pages already resident are left alone, and no
+     * dirty page is evicted to make room.
+     */
+    synchronized void addReadAhead(List<Page> pages, long generation) {
+        if (generation != this.generation) {
+            return;
+        }
+        for (Page page : pages) {
+            PageId pid = page.getId();
+            if (this.cache.containsKey(pid)) {
+                continue;
+            }
+            if (this.cache.size() >= this.numPages) {
+                PageId victim = this.replacementPolicy.chooseVictim(this::isClean);
+                if (victim == null || !isClean(victim)) {
+                    return;
+                }
+                this.cache.remove(victim);
+                this.replacementPolicy.pageRemoved(victim);
+            }
+            this.cache.put(pid, page);
+            this.replacementPolicy.pageAdded(pid);
+        }
+    }
+
+    /**
+     * Tells the replacement policy that a scan is done with the page, if
+     * scans are scan resistant; see {@link #setReadAhead}.
+     */
+    void pageScanned(PageId pid) {
+        if (this.scanResistant) {
+            this.replacementPolicy.pageScanned(pid);
+        }
+    }
+
+    /**
+     * Starts a snapshot for a read-only transaction if snapshot isolation is
+     * on. getPage then serves the transaction's reads from the snapshot.
+     *
+     * @return true if a snapshot was started, false if the transaction
+     *         has to lock pages as usual
+     */
+    public boolean beginSnapshot(TransactionId tid) {
+        VersionStore versions = this.versions;
+        if (versions == null) {
+            return false;
+        }
+        this.snapshots.put(tid, versions.beginSnapshot());
+        return true;
+    }
+
     /**
      * Retrieve the specified page with the associated permissions.
      * Will acquire a lock and may block if that lock is held by another
@@ -68,6 +305,9 @@ public class BufferPool {
      * be added to the buffer pool and returned.  If there is insufficient
      * space in the buffer pool, a page should be evicted and the new page
      * should be added in its place.
+     * <p>
+     * A transaction reading from a snapshot gets the page as of its
+     * snapshot instead, without locking; it must not modify it.
      *
      * @param tid the ID of the transaction requesting the page
      * @param pid the ID of the requested page
@@ -76,31 +316,116 @@ public class BufferPool {
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
         // some code goes here
-        try {
-            Thread.sleep(1);
-            this.lockManager.grabLock(tid, pid, perm);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        Long snapshot = tid == null ? null : this.snapshots.get(tid);
+        if (snapshot != null) {
+            if (perm.equals(Permissions.READ_WRITE)) {
+                throw new DbException("read-only transaction " + tid + " cannot write " + pid);
+            }
+            return this.versions.read(pid, snapshot);
         }
 
-        if (this.cache.containsKey(pid)) {
-            if (!this.dirtyPageIds.contains(pid)) {
-                this.dirtyPageIds.push(pid);
-            }
-            return this.cache.get(pid);
+        this.lockManager.grabLock(tid, pid, perm);
+        Page page = this.cache.get(pid);
+        if (page != null) {
+            this.replacementPolicy.pageAccessed(pid);
         } else {
-            if (this.cache.size() == this.numPages) {
-                evictPage();
-            }
+            page = loadPage(pid);
+        }
+        if (perm.equals(Permissions.READ_WRITE)) {
+            recordWrite(tid, pid);
+            preserveVersion(page);
+        }
+        return page;
+    }
 
-            DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            Page page = dbFile.readPage(pid);
-            this.cache.put(pid, page);
-            if (!this.dirtyPageIds.contains(pid)) {
-                this.dirtyPageIds.push(pid);
-            }
+    /**
+     * Keeps the committed state of page for snapshot readers before a
+     * writer changes it. HeapFile calls this for pages it adds to a file.
+     */
+    void preserveVersion(Page page) {
+        VersionStore versions = this.versions;
+        if (versions != null) {
+            versions.preserve(page);
+        }
+    }
+
+    // the current committed state of a page nobody is writing: a copy,
+    // never the cached page itself, since a writer may start changing it.
+    // A page read from a mapped file is copied too: snapshot readers take
+    // no lock, so a writer may write the file while they read the page.
+    private Page readCommitted(PageId pid) {
+        Page page = this.cache.get(pid);
+        if (page != null) {
+            return page.getBeforeImage();
+        }
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        page = dbFile.readPage(pid);
+        return dbFile instanceof MappedHeapFile ? page.getBeforeImage() : page;
+    }
+
+    /**
+     * Reads a page that missed the cache from disk and makes it resident,
+     * evicting another page first if the pool is full.
+     */
+    private synchronized Page loadPage(PageId pid) throws DbException {
+        Page page = this.cache.get(pid);
+        if (page != null) {
+            // another thread brought it in while we waited for the monitor
+            this.replacementPolicy.pageAccessed(pid);
             return page;
         }
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        try {
+            page = dbFile.readPage(pid);
+        } catch (CorruptPageException e) {
+            throw new DbException(e.getMessage());
+        }
+        putPage(page);
+        return page;
+    }
+
+    /**
+     * Makes page resident under its id, replacing any cached version of the
+     * same page. Evicts another page first if the page is new to the pool
+     * and the pool is full.
+     */
+    private synchronized void putPage(Page page) throws DbException {
+        PageId pid = page.getId();
+        if (this.cache.containsKey(pid)) {
+            this.cache.put(pid, page);
+            this.replacementPolicy.pageAccessed(pid);
+            return;
+        }
+        while (this.cache.size() >= this.numPages) {
+            evictPage();
+        }
+        this.cache.put(pid, page);
+        this.replacementPolicy.pageAdded(pid);
+    }
+
+    // remembers that tid may dirty pid
+    private void recordWrite(TransactionId tid, PageId pid) {
+        if (tid != null) {
+            this.dirtiedPages.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pid);
+        }
+    }
+
+    /**
+     * Releases tid's lock on a page it fetched for writing but did not
+     * change, and forgets that tid may write it, so that its commit or
+     * abort leaves the page to whoever locks it next. HeapFile calls this
+     * for the full pages it tries while looking for room.
+     */
+    void releaseUnchanged(TransactionId tid, PageId pid) {
+        Set<PageId> touched = this.dirtiedPages.get(tid);
+        if (touched != null) {
+            touched.remove(pid);
+        }
+        VersionStore versions = this.versions;
+        if (versions != null) {
+            versions.abort(Collections.singleton(pid));
+        }
+        this.lockManager.releaseLock(tid, pid);
     }
 
     /**
@@ -129,6 +454,14 @@ public class BufferPool {
         transactionComplete(tid, true);
     }
 
+    /**
+     * Returns the lock manager of this buffer pool, e.g. to read its
+     * metrics or set a lock timeout.
+     */
+    public LockManager getLockManager() {
+        return this.lockManager;
+    }
+
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
@@ -147,31 +480,56 @@ public class BufferPool {
             throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        Long snapshot = this.snapshots.remove(tid);
+        if (snapshot != null) {
+            this.versions.endSnapshot(snapshot);
+            return;
+        }
+
+        Set<PageId> touched = this.dirtiedPages.remove(tid);
+        if (touched == null) {
+            touched = Collections.emptySet();
+        }
+        VersionStore versions = this.versions;
         if (commit) {
-//            flushPages(tid);
             try {
-                for (PageId pid : cache.keySet()) {
-                    Page page = cache.get(pid);
-                    TransactionId currtid = page.isDirty();
-                    if (currtid != null && currtid.equals(tid)) {
-                        flushPage(pid);
+                List<PageId> dirty = new ArrayList<>(touched.size());
+                for (PageId pid : touched) {
+                    Page page = this.cache.get(pid);
+                    if (page != null && tid.equals(page.isDirty())) {
+                        dirty.add(pid);
                     }
-                    page.setBeforeImage();
                 }
+                flushPages(dirty);
             } catch (IOException e) {
                 e.printStackTrace();
             }
+            for (PageId pid : touched) {
+                Page page = this.cache.get(pid);
+                if (page != null) {
+                    page.setBeforeImage();
+                }
+            }
+            if (versions != null) {
+                List<Page> images = new ArrayList<>(touched.size());
+                for (PageId pid : touched) {
+                    images.add(readCommitted(pid));
+                }
+                versions.commit(images);
+            }
         } else {
-            Set<PageId> discardPages = new HashSet<>();
-            for (PageId pid : this.cache.keySet()) {
-                TransactionId currtid = this.cache.get(pid).isDirty();
-                if (currtid != null && currtid.equals(tid)) {
-                    discardPages.add(pid);
+            for (PageId pid : touched) {
+                Page page = this.cache.get(pid);
+                if (page != null && tid.equals(page.isDirty())) {
+                    discardPage(pid);
+                    DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                    if (dbFile instanceof HeapFile) {
+                        ((HeapFile) dbFile).discarded(page);
+                    }
                 }
             }
-
-            for (PageId pid : discardPages) {
-                discardPage(pid);
+            if (versions != null) {
+                versions.abort(touched);
             }
         }
         this.lockManager.releaseLockTid(tid);
@@ -196,12 +554,13 @@ public class BufferPool {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
-        HeapFile heapFile = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
+        DbFile heapFile = Database.getCatalog().getDatabaseFile(tableId);
         ArrayList<Page> dirtyPages  = heapFile.insertTuple(tid, t);
 
         for (Page page : dirtyPages) {
             page.markDirty(true, tid);
-            this.cache.put(page.getId(), page);
+            recordWrite(tid, page.getId());
+            putPage(page);
         }
     }
 
@@ -223,12 +582,13 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         int tableId = t.getRecordId().getPageId().getTableId();
-        HeapFile heapFile = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
+        DbFile heapFile = Database.getCatalog().getDatabaseFile(tableId);
         ArrayList<Page> dirtyPages  = heapFile.deleteTuple(tid, t);
 
         for (Page page : dirtyPages) {
             page.markDirty(true, tid);
-            this.cache.put(page.getId(), page);
+            recordWrite(tid, page.getId());
+            putPage(page);
         }
     }
 
@@ -240,11 +600,13 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
+        List<PageId> dirty = new ArrayList<>();
         for (PageId pid : this.cache.keySet()) {
             if (this.cache.get(pid).isDirty() != null) {
-                flushPage(pid);
+                dirty.add(pid);
             }
         }
+        flushPages(dirty);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -259,7 +621,8 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         this.cache.remove(pid);
-        this.dirtyPageIds.remove(pid);
+        this.replacementPolicy.pageRemoved(pid);
+        this.generation++;
     }
 
     /**
@@ -269,21 +632,49 @@ public class BufferPool {
     private synchronized void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-        Page page = this.cache.get(pid);
-//        page.markDirty(false, null);
-        int tableId = pid.getTableId();
-        HeapFile heapFile = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
+        flushPages(Collections.singletonList(pid));
+    }
 
-        // append an update record to the log, with a before-image and after-image.
-        TransactionId dirtier = page.isDirty();
-        if (dirtier != null) {
-            Database.getLogFile().logWrite(dirtier, page.getBeforeImage(), page);
-            Database.getLogFile().force();
+    /**
+     * Flushes the specified resident pages to disk. Every dirty page is
+     * logged first and the log flushed once, up to the last page's LSN;
+     * then each table's pages go to
+     * disk with one {@link DbFile#writePages} call, so neighbouring pages
+     * are written together.
+     */
+    private synchronized void flushPages(Collection<PageId> pids) throws IOException {
+        Map<Integer, List<Page>> byTable = new HashMap<>();
+        long lsn = 0;
+        for (PageId pid : pids) {
+            Page page = this.cache.get(pid);
+            if (page == null) {
+                continue;
+            }
+            // append an update record to the log, with a before-image and after-image.
+            TransactionId dirtier = page.isDirty();
+            if (dirtier != null) {
+                Database.getLogFile().logWrite(dirtier, page.getBeforeImage(), page);
+            }
+            lsn = Math.max(lsn, page.getLSN());
+            byTable.computeIfAbsent(pid.getTableId(), id -> new ArrayList<>()).add(page);
+        }
+        if (byTable.isEmpty()) {
+            return;
         }
+        // write ahead: the log records of the pages go to disk first
+        Database.getLogFile().flushToLSN(lsn);
 
-        heapFile.writePage(page);
-        page.markDirty(false, null);
-        this.dirtyPageIds.remove(pid);
+        for (Map.Entry<Integer, List<Page>> e : byTable.entrySet()) {
+            Database.getCatalog().getDatabaseFile(e.getKey()).writePages(e.getValue());
+            // the pages leave the log's dirty page table
+            Database.getLogFile().pagesWritten(e.getValue());
+        }
+        for (List<Page> pages : byTable.values()) {
+            for (Page page : pages) {
+                page.markDirty(false, null);
+            }
+        }
+        this.generation++;
     }
 
     /** Write all pages of the specified transaction to disk.
@@ -291,27 +682,46 @@ public class BufferPool {
     public synchronized void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
-        for (PageId pid : this.cache.keySet()) {
-            TransactionId currtid = this.cache.get(pid).isDirty();
-            if (currtid != null && currtid.equals(tid)) {
-                flushPage(pid);
+        Set<PageId> touched = this.dirtiedPages.get(tid);
+        if (touched == null) {
+            return;
+        }
+        List<PageId> dirty = new ArrayList<>(touched.size());
+        for (PageId pid : touched) {
+            Page page = this.cache.get(pid);
+            if (page != null && tid.equals(page.isDirty())) {
+                dirty.add(pid);
             }
         }
+        flushPages(dirty);
     }
 
     /**
      * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * The replacement policy picks the victim and prefers clean pages; a
+     * dirty victim is flushed to disk first so its updates are not lost.
      */
     private synchronized void evictPage() throws DbException {
         // some code goes here
         // not necessary for lab1
+        PageId pid = this.replacementPolicy.chooseVictim(this::isClean);
+        if (pid == null) {
+            throw new DbException("no page in the buffer pool can be evicted");
+        }
         try {
-            PageId pid = this.dirtyPageIds.removeLast();
-            flushPage(pid);
-            cache.remove(pid);
+            if (!isClean(pid)) {
+                flushPage(pid);
+            }
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new DbException("could not flush evicted page: " + e.getMessage());
         }
+        this.cache.remove(pid);
+        this.replacementPolicy.pageRemoved(pid);
+    }
+
+    // a page is clean if it is not resident or nobody has dirtied it
+    private boolean isClean(PageId pid) {
+        Page page = this.cache.get(pid);
+        return page == null || page.isDirty() == null;
     }
 }
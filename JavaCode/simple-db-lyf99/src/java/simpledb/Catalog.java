@@ -116,6 +116,22 @@ public class Catalog {
         }
     }
 
+    /**
+     * Returns the page size of the specified table
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @throws NoSuchElementException if the table doesn't exist
+     * @see DbFile#getPageSize()
+     */
+    public int getPageSize(int tableid) throws NoSuchElementException {
+        Table table = tableIdMap.get(tableid);
+        if (table != null) {
+            return table.getFile().getPageSize();
+        } else {
+            throw new NoSuchElementException();
+        }
+    }
+
     /**
      * Returns the DbFile that can be used to read the contents of the
      * specified table.
@@ -166,6 +182,10 @@ public class Catalog {
 
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line is of the form name (field type, field type, ...), optionally
+     * followed by "slotted" to store the table in a {@link SlottedHeapFile},
+     * and by "pagesize" and a number of bytes to give the table its own
+     * page size, e.g. "facts (a int, b int) pagesize 1048576".
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -206,14 +226,36 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                boolean slotted = false;
+                int pageSize = 0;
+                String[] options = line.substring(line.indexOf(")") + 1).trim().split("\\s+");
+                for (int i = 0; i < options.length; i++) {
+                    String option = options[i].toLowerCase();
+                    if (option.isEmpty())
+                        continue;
+                    if (option.equals("slotted"))
+                        slotted = true;
+                    else if (option.equals("pagesize") && i + 1 < options.length)
+                        pageSize = Integer.parseInt(options[++i]);
+                    else {
+                        System.out.println("Unknown table option " + options[i]);
+                        System.exit(0);
+                        return;
+                    }
+                }
+                File tabFile = new File(baseFolder+"/"+name + ".dat");
+                HeapFile tabHf;
+                if (pageSize == 0)
+                    tabHf = slotted ? new SlottedHeapFile(tabFile, t) : new HeapFile(tabFile, t);
+                else
+                    tabHf = slotted ? new SlottedHeapFile(tabFile, t, pageSize) : new HeapFile(tabFile, t, pageSize);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
-        } catch (IndexOutOfBoundsException e) {
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
         }
@@ -0,0 +1,102 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Checkpointer takes the checkpoints of a LogFile on a background thread:
+ * every so often, and whenever the log asks for one because it has grown
+ * enough since the last. See {@link LogFile#setCheckpointPolicy}.
+ * <p>
+ * The thread is a daemon, started the first time a checkpoint is needed.
+ * Database.reset stops it when it drops the log, and so does
+ * LogFile.shutdown; a stopped Checkpointer ignores further requests.
+ */
+class Checkpointer {
+    private final LogFile log;
+    private ScheduledThreadPoolExecutor executor;
+    private ScheduledFuture<?> periodic;
+    private boolean stopped = false;
+    private final AtomicBoolean requested = new AtomicBoolean();
+
+    Checkpointer(LogFile log) {
+        this.log = log;
+    }
+
+    // the executor, started on first use; null once stopped
+    private synchronized ScheduledThreadPoolExecutor executor() {
+        if (this.executor == null && !this.stopped) {
+            this.executor = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread t = new Thread(r, "simpledb-checkpoint");
+                t.setDaemon(true);
+                return t;
+            });
+            this.executor.setRemoveOnCancelPolicy(true);
+            this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        }
+        return this.executor;
+    }
+
+    /**
+     * Takes a checkpoint every intervalMillis milliseconds from now on, or
+     * stops taking them on a schedule if it is 0.
+     */
+    synchronized void configure(long intervalMillis) {
+        if (this.periodic != null) {
+            this.periodic.cancel(false);
+            this.periodic = null;
+        }
+        ScheduledThreadPoolExecutor executor = executor();
+        if (intervalMillis > 0 && executor != null) {
+            this.periodic = executor.scheduleWithFixedDelay(this::checkpoint,
+                    intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Asks for a checkpoint soon. Requests made before it starts are
+     * answered by the same checkpoint.
+     */
+    void request() {
+        if (this.requested.compareAndSet(false, true)) {
+            ScheduledThreadPoolExecutor executor = executor();
+            try {
+                if (executor != null) {
+                    executor.execute(this::checkpoint);
+                }
+            } catch (RejectedExecutionException e) {
+                // stopped meanwhile
+            }
+        }
+    }
+
+    /**
+     * Stops for good. A checkpoint under way finishes; it is not
+     * interrupted, since that would close the log's channel.
+     */
+    synchronized void stop() {
+        this.stopped = true;
+        if (this.executor != null) {
+            this.executor.shutdown();
+            this.executor = null;
+        }
+        this.periodic = null;
+    }
+
+    synchronized boolean isStopped() {
+        return this.stopped;
+    }
+
+    private void checkpoint() {
+        this.requested.set(false);
+        try {
+            this.log.scheduledCheckpoint();
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * CLOCK (second chance) page replacement. Every resident page owns a frame
+ * with a reference bit. A hit only sets the bit, so it costs one hash lookup
+ * and one store. To find a victim the clock hand sweeps the frames, clearing
+ * set bits as it passes; the first unreferenced clean page is the victim.
+ * If two full sweeps find no clean page, the first unreferenced dirty page
+ * seen is returned instead.
+ */
+public class ClockReplacementPolicy implements ReplacementPolicy {
+    private PageId[] frames;
+    private volatile AtomicIntegerArray referenced;
+    private final Map<PageId, Integer> frameOf;
+    private final Deque<Integer> freeFrames;
+    private int hand;
+
+    /**
+     * Creates a clock with room for numFrames pages. The clock grows if the
+     * BufferPool ever adds more pages than that.
+     *
+     * @param numFrames expected number of resident pages
+     */
+    public ClockReplacementPolicy(int numFrames) {
+        int size = Math.max(1, numFrames);
+        this.frames = new PageId[size];
+        this.referenced = new AtomicIntegerArray(size);
+        this.frameOf = new ConcurrentHashMap<>();
+        this.freeFrames = new ArrayDeque<>();
+        for (int i = 0; i < size; i++) {
+            this.freeFrames.add(i);
+        }
+        this.hand = 0;
+    }
+
+    public synchronized void pageAdded(PageId pid) {
+        Integer frame = this.frameOf.get(pid);
+        if (frame == null) {
+            if (this.freeFrames.isEmpty()) {
+                grow();
+            }
+            frame = this.freeFrames.poll();
+            this.frames[frame] = pid;
+            this.frameOf.put(pid, frame);
+        }
+        this.referenced.set(frame, 1);
+    }
+
+    public void pageAccessed(PageId pid) {
+        Integer frame = this.frameOf.get(pid);
+        if (frame != null) {
+            this.referenced.lazySet(frame, 1);
+        }
+    }
+
+    // clears the reference bit, so the next sweep takes the page
+    public void pageScanned(PageId pid) {
+        Integer frame = this.frameOf.get(pid);
+        if (frame != null) {
+            this.referenced.lazySet(frame, 0);
+        }
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Integer frame = this.frameOf.remove(pid);
+        if (frame != null) {
+            this.frames[frame] = null;
+            this.referenced.set(frame, 0);
+            this.freeFrames.push(frame);
+        }
+    }
+
+    public synchronized PageId chooseVictim(CleanTest clean) {
+        int n = this.frames.length;
+        PageId dirtyCandidate = null;
+        // the first sweep clears reference bits, the second one is
+        // guaranteed to see every page with its bit cleared
+        for (int step = 0; step < 2 * n; step++) {
+            int frame = this.hand;
+            this.hand = (this.hand + 1) % n;
+            PageId pid = this.frames[frame];
+            if (pid == null) {
+                continue;
+            }
+            if (this.referenced.getAndSet(frame, 0) != 0) {
+                continue;
+            }
+            if (clean.isClean(pid)) {
+                return pid;
+            }
+            if (dirtyCandidate == null) {
+                dirtyCandidate = pid;
+            }
+        }
+        return dirtyCandidate;
+    }
+
+    // doubles the number of frames, keeping every page in its current frame
+    private void grow() {
+        int oldSize = this.frames.length;
+        int newSize = oldSize * 2;
+        AtomicIntegerArray newReferenced = new AtomicIntegerArray(newSize);
+        for (int i = 0; i < oldSize; i++) {
+            newReferenced.set(i, this.referenced.get(i));
+        }
+        this.frames = Arrays.copyOf(this.frames, newSize);
+        this.referenced = newReferenced;
+        for (int i = oldSize; i < newSize; i++) {
+            this.freeFrames.add(i);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package simpledb;
+
+/**
+ * Exception that is thrown when a page read from disk fails its checksum
+ * or was only partly written. It is unchecked because
+ * {@link DbFile#readPage} cannot throw checked exceptions; the BufferPool
+ * turns it into a DbException.
+ */
+public class CorruptPageException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public CorruptPageException(String s) {
+        super(s);
+    }
+}
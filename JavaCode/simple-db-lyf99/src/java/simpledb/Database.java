@@ -56,11 +56,23 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(new BufferPool(pages));
+    }
+
+    /**
+     * Method used for testing -- replace the buffer pool with the given one,
+     * e.g. one with a different replacement or deadlock policy, and return it
+     */
+    public static BufferPool resetBufferPool(BufferPool bufferPool) {
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            BufferPool old = (BufferPool) bufferPoolF.get(_instance.get());
+            bufferPoolF.set(_instance.get(), bufferPool);
+            if (old != bufferPool) {
+                old.stopBackgroundWriter();
+            }
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
@@ -75,8 +87,11 @@ public class Database {
     }
 
     // reset the database, used for unit tests only.
+    // stops the background threads of the old instance.
     public static void reset() {
-        _instance.set(new Database());
+        Database old = _instance.getAndSet(new Database());
+        old._bufferpool.stopBackgroundWriter();
+        old._logfile.stopCheckpoints();
     }
 
 }
@@ -28,6 +28,48 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Read the specified pages from disk. Files that can read several
+     * pages with one call override this; by default each page is read
+     * with {@link #readPage}.
+     *
+     * @param ids The pages to read, in any order.
+     * @return the pages, in the same order as ids
+     * @throws IllegalArgumentException if a page does not exist in this file.
+     * @throws IOException if the read fails
+     */
+    default List<Page> readPages(List<PageId> ids) throws IOException {
+        List<Page> pages = new ArrayList<Page>(ids.size());
+        for (PageId id : ids) {
+            pages.add(readPage(id));
+        }
+        return pages;
+    }
+
+    /**
+     * Push the specified pages to disk. Files that can write several pages
+     * with one call override this; by default each page is written with
+     * {@link #writePage}.
+     *
+     * @param pages The pages to write, in any order.
+     * @throws IOException if the write fails
+     */
+    default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages) {
+            writePage(p);
+        }
+    }
+
+    /**
+     * Makes the pages written so far durable. The log calls this at a
+     * checkpoint, before recovery stops redoing those pages. Files that
+     * cache their writes override this; by default it does nothing.
+     *
+     * @throws IOException if the force fails
+     */
+    default void force() throws IOException {
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -88,4 +130,14 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc();
+
+    /**
+     * Returns the size in bytes of the pages of this DbFile. Unless the
+     * file says otherwise, that is {@link BufferPool#getPageSize()}.
+     *
+     * @return the page size of this DbFile.
+     */
+    default int getPageSize() {
+        return BufferPool.getPageSize();
+    }
 }
@@ -43,6 +43,10 @@ public class Filter extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+        // a scan can test the predicate on the raw page bytes, so that
+        // rows it rejects are never decoded
+        if (this.child instanceof SeqScan)
+            ((SeqScan) this.child).setPredicate(this.p);
         this.child.open();
         super.open();
     }
@@ -0,0 +1,105 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap remembers which pages of a HeapFile have an empty slot, so
+ * that inserts can go straight to such a page instead of trying every
+ * page from the start of the file.
+ * <p>
+ * The map keeps one byte per page in a file next to the heap file (its
+ * name plus ".fsm"): 0 if nothing is known about the page, 1 if it has
+ * room, 2 if it is full. Changes are written through as they happen, but
+ * never forced; the map is only a hint. A page the map wrongly calls
+ * full just goes unused until it is written again, and a page it wrongly
+ * offers is checked by the inserter and then marked full.
+ */
+class FreeSpaceMap {
+    private static final byte UNKNOWN = 0;
+    private static final byte ROOM = 1;
+    private static final byte FULL = 2;
+
+    private final File file;
+    private FileChannel channel;
+    private byte[] states;
+    // pages below tracked that are not known to be full
+    private final BitSet candidates = new BitSet();
+    private int tracked = 0;
+    private final ByteBuffer one = ByteBuffer.allocate(1);
+
+    FreeSpaceMap(File heapFile) {
+        this.file = new File(heapFile.getPath() + ".fsm");
+    }
+
+    /**
+     * Returns a page below numPages that may have an empty slot, looking
+     * from page start on and wrapping around, or -1 if every page is full.
+     */
+    synchronized int findPage(int numPages, int start) {
+        load();
+        for (; this.tracked < numPages; this.tracked++) {
+            if (stateOf(this.tracked) != FULL) {
+                this.candidates.set(this.tracked);
+            }
+        }
+        int page = this.candidates.nextSetBit(start);
+        if (page < 0 || page >= numPages) {
+            page = this.candidates.nextSetBit(0);
+        }
+        return page >= 0 && page < numPages ? page : -1;
+    }
+
+    /** Records whether page pageNo has an empty slot. */
+    synchronized void update(int pageNo, boolean hasRoom) {
+        load();
+        byte state = hasRoom ? ROOM : FULL;
+        if (pageNo < this.tracked) {
+            this.candidates.set(pageNo, hasRoom);
+        }
+        if (stateOf(pageNo) == state) {
+            return;
+        }
+        if (pageNo >= this.states.length) {
+            this.states = Arrays.copyOf(this.states,
+                    Math.max(pageNo + 1, this.states.length * 2));
+        }
+        this.states[pageNo] = state;
+        try {
+            if (this.channel == null) {
+                this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            this.one.clear();
+            this.one.put(state).flip();
+            this.channel.write(this.one, pageNo);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private byte stateOf(int pageNo) {
+        return pageNo < this.states.length ? this.states[pageNo] : UNKNOWN;
+    }
+
+    // reads the map file the first time the map is used
+    private void load() {
+        if (this.states != null) {
+            return;
+        }
+        this.states = new byte[0];
+        if (this.file.exists()) {
+            try {
+                this.states = Files.readAllBytes(this.file.toPath());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GroupCommit writes the COMMIT records of a LogFile in batches, so that
+ * many concurrent commits share one write and one force of the log rather
+ * than waiting for a force each.
+ * <p>
+ * A committing transaction queues itself and waits. A flusher thread takes
+ * everything queued, up to the maximum batch size, appends the records and
+ * forces the log, and then wakes the batch. Before it takes a batch the
+ * flusher waits up to the maximum delay for the batch to fill; with no
+ * delay, the commits that arrive while one force runs make up the next
+ * batch. See {@link LogFile#setGroupCommit}.
+ * <p>
+ * As with {@link ReadAhead}, the flusher is a daemon that exits once it
+ * has been idle for a second.
+ * <p>
+ * The time each commit waits, from queueing to waking up with its record
+ * on disk, goes into a histogram like LockMetrics' wait histogram; see
+ * {@link LogFile#getCommitLatencyPercentileMicros}.
+ */
+class GroupCommit {
+    private final LogFile log;
+    private final ThreadPoolExecutor executor;
+
+    private long maxDelayNanos;
+    private int maxBatchSize;
+    private final List<Commit> pending = new ArrayList<Commit>();
+    private boolean flushing = false;
+    private final WaitHistogram latency = new WaitHistogram();
+
+    // a transaction waiting for its COMMIT record to reach the disk
+    private static class Commit {
+        final TransactionId tid;
+        final long queued = System.nanoTime();
+        private boolean done = false;
+        private IOException failure;
+
+        Commit(TransactionId tid) {
+            this.tid = tid;
+        }
+
+        synchronized void finish(IOException failure) {
+            this.failure = failure;
+            this.done = true;
+            notifyAll();
+        }
+
+        synchronized void await() throws IOException {
+            boolean interrupted = false;
+            while (!this.done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // the record is queued; we must see it through
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (this.failure != null) {
+                throw new IOException("could not commit transaction " + this.tid.getId(), this.failure);
+            }
+        }
+    }
+
+    GroupCommit(LogFile log, long maxDelayMicros, int maxBatchSize) {
+        this.log = log;
+        configure(maxDelayMicros, maxBatchSize);
+        this.executor = new ThreadPoolExecutor(0, 1, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), r -> {
+                    Thread t = new Thread(r, "simpledb-group-commit");
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    synchronized void configure(long maxDelayMicros, int maxBatchSize) {
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+        this.maxBatchSize = maxBatchSize;
+        notifyAll();
+    }
+
+    /**
+     * Queues a COMMIT record for tid and returns once it has been forced to
+     * disk.
+     *
+     * @throws IOException if the batch could not be written or forced
+     */
+    void commit(TransactionId tid) throws IOException {
+        Commit c = new Commit(tid);
+        synchronized (this) {
+            this.pending.add(c);
+            if (this.flushing) {
+                notifyAll();
+            } else {
+                this.flushing = true;
+                this.executor.execute(this::flush);
+            }
+        }
+        try {
+            c.await();
+        } finally {
+            this.latency.record(System.nanoTime() - c.queued);
+        }
+    }
+
+    /** Returns the histogram of the time commits waited. */
+    WaitHistogram latency() {
+        return this.latency;
+    }
+
+    // writes batches until nothing is queued
+    private void flush() {
+        while (true) {
+            List<Commit> batch;
+            synchronized (this) {
+                if (this.pending.isEmpty()) {
+                    this.flushing = false;
+                    return;
+                }
+                long deadline = System.nanoTime() + this.maxDelayNanos;
+                long left;
+                while (this.pending.size() < this.maxBatchSize
+                        && (left = deadline - System.nanoTime()) > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(this, left);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+                List<Commit> head = this.pending.subList(0, Math.min(this.pending.size(), this.maxBatchSize));
+                batch = new ArrayList<Commit>(head);
+                head.clear();
+            }
+
+            List<TransactionId> tids = new ArrayList<TransactionId>(batch.size());
+            for (Commit c : batch) {
+                tids.add(c.tid);
+            }
+            IOException failure = null;
+            try {
+                this.log.logCommits(tids);
+            } catch (IOException | RuntimeException e) {
+                failure = e instanceof IOException ? (IOException) e : new IOException(e);
+            }
+            for (Commit c : batch) {
+                c.finish(failure);
+            }
+        }
+    }
+}
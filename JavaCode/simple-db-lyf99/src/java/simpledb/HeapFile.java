@@ -2,29 +2,75 @@ package simpledb;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.function.ToIntFunction;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
  * in no particular order. Tuples are stored on pages, each of which is a fixed
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
- * constructor.
+ * constructor. Subclasses may keep their tuples on other kinds of
+ * {@link TuplePage} by overriding {@link #createPage}.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
+    /** The smallest page size a HeapFile can be given. */
+    public static final int MIN_PAGE_SIZE = 4096;
+    /** The largest page size a HeapFile can be given. */
+    public static final int MAX_PAGE_SIZE = 1 << 20;
+
     // Jacky Li's personal codes starts from here
     private File f;
     private TupleDesc td;
     private int tableId;
 
     /**
-     * Constructs a heap file backed by the specified file.
+     * Opened on first use and kept open; reads and writes give their file
+     * position, so concurrent transactions need not share a seek pointer.
+     */
+    private volatile FileChannel channel;
+
+    /**
+     * The number of pages as of the last time we looked at the file size or
+     * appended a page. Scans and inserts use it instead of asking the file
+     * system on every page, and only look at the file again when they reach
+     * its end.
+     */
+    private volatile int pageCount = -1;
+
+    /** Which pages have room, so inserts need not try every page. */
+    private final FreeSpaceMap freeSpace;
+
+    /** The checksum of every page we have written. */
+    private final PageChecksums checksums;
+
+    /** The size of our pages, or 0 to use BufferPool.getPageSize(). */
+    private final int pageSize;
+
+    /**
+     * True if a subclass reads pages its own way, e.g. MappedHeapFile.
+     * Read-ahead and readPages would go around it, so such files are not
+     * read ahead and read their batches one page at a time.
+     */
+    private final boolean readsOwnPages;
+
+    /** True if a subclass writes pages its own way; see readsOwnPages. */
+    private final boolean writesOwnPages;
+
+    /**
+     * Constructs a heap file backed by the specified file, with pages of
+     * {@link BufferPool#getPageSize()} bytes.
      * 
      * @param f
      *            the file that stores the on-disk backing store for this heap
@@ -35,6 +81,48 @@ public class HeapFile implements DbFile {
         this.f = f;
         this.td = td;
         this.tableId = this.getId();
+        this.freeSpace = new FreeSpaceMap(f);
+        this.checksums = new PageChecksums(f);
+        this.pageSize = 0;
+        this.readsOwnPages = overrides("readPage", PageId.class);
+        this.writesOwnPages = overrides("writePage", Page.class);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, with pages of
+     * the specified size. Large pages suit tables that are mostly scanned:
+     * a scan reads fewer, larger pages.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param pageSize
+     *            the size of the file's pages in bytes, from
+     *            {@link #MIN_PAGE_SIZE} to {@link #MAX_PAGE_SIZE}
+     * @throws IllegalArgumentException if pageSize is out of range
+     */
+    public HeapFile(File f, TupleDesc td, int pageSize) {
+        if (pageSize < MIN_PAGE_SIZE || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("page size " + pageSize + " is not between "
+                    + MIN_PAGE_SIZE + " and " + MAX_PAGE_SIZE);
+        }
+        this.f = f;
+        this.td = td;
+        this.tableId = this.getId();
+        this.freeSpace = new FreeSpaceMap(f);
+        this.checksums = new PageChecksums(f);
+        this.pageSize = pageSize;
+        this.readsOwnPages = overrides("readPage", PageId.class);
+        this.writesOwnPages = overrides("writePage", Page.class);
+    }
+
+    // true if a subclass overrides the specified method of ours
+    private boolean overrides(String name, Class<?> param) {
+        try {
+            return getClass().getMethod(name, param).getDeclaringClass() != HeapFile.class;
+        } catch (NoSuchMethodException e) {
+            return true;
+        }
     }
 
     /**
@@ -73,52 +161,267 @@ public class HeapFile implements DbFile {
         // throw new UnsupportedOperationException("implement this");
     }
 
+    /**
+     * Returns the size of the pages of this HeapFile: the size it was
+     * constructed with, or else {@link BufferPool#getPageSize()}.
+     */
+    @Override
+    public int getPageSize() {
+        return this.pageSize != 0 ? this.pageSize : BufferPool.getPageSize();
+    }
+
+    // returns the channel of the backing file, opening it on first use
+    FileChannel channel() throws IOException {
+        FileChannel c = this.channel;
+        if (c == null) {
+            synchronized (this) {
+                c = this.channel;
+                if (c == null) {
+                    c = FileChannel.open(this.f.toPath(), StandardOpenOption.CREATE,
+                            StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    this.channel = c;
+                }
+            }
+        }
+        return c;
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) throws IllegalArgumentException {
         // some code goes here
-        int pSize = BufferPool.getPageSize();  // pSize == pageSize
+        int pSize = getPageSize();  // pSize == pageSize
         int pNumber = pid.getPageNumber();
-        int offset = pNumber * pSize;
+        long offset = (long) pNumber * pSize;
 
         try {
-            RandomAccessFile r = new RandomAccessFile(this.f, "r");
             byte[] d = new byte[pSize];  // d == data
-            r.seek(offset);
-            r.read(d);
-            r.close();
-            Page p = new HeapPage((HeapPageId)pid, d);
+            ByteBuffer buf = ByteBuffer.wrap(d);
+            FileChannel c = channel();
+            // a page past the end of the file reads as zeroes, i.e. empty
+            int n = 0;
+            while (buf.hasRemaining() && n >= 0) {
+                n = c.read(buf, offset + buf.position());
+            }
+            check(pNumber, d, buf.position());
+            Page p = createPage((HeapPageId)pid, d);
 
             return p;
+        } catch (CorruptPageException e) {
+            throw e;
         } catch (Exception e) {
             e.printStackTrace();
         }
         return null;
     }
 
+    /**
+     * Reads the specified pages, with one scatter read for each run of
+     * consecutive page numbers among them. As with readPage, pages past the
+     * end of the file read as empty pages.
+     */
+    @Override
+    public List<Page> readPages(List<PageId> pids) throws IOException {
+        if (this.readsOwnPages) {
+            return DbFile.super.readPages(pids);
+        }
+        // the places of the pages in pids, by page number
+        Integer[] order = new Integer[pids.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingInt(i -> pids.get(i).getPageNumber()));
+
+        Page[] pages = new Page[order.length];
+        for (int i = 0; i < order.length; ) {
+            int first = pids.get(order[i]).getPageNumber();
+            int count = runLength(pids, order, i, PageId::getPageNumber);
+            ByteBuffer[] bufs = readRun(first, count);
+            for (int k = 0; k < count; k++) {
+                byte[] d = bufs[k].array();
+                check(first + k, d, bufs[k].position());
+                pages[order[i + k]] = createPage(new HeapPageId(this.tableId, first + k), d);
+            }
+            i += count;
+        }
+        return Arrays.asList(pages);
+    }
+
+    // the number of items from order[i] on whose page numbers follow on
+    // from each other
+    private static <T> int runLength(List<T> items, Integer[] order, int i,
+                                     ToIntFunction<T> pageNumber) {
+        int n = 1;
+        while (i + n < order.length && pageNumber.applyAsInt(items.get(order[i + n]))
+                == pageNumber.applyAsInt(items.get(order[i + n - 1])) + 1) {
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Checks the bytes read for page pageNo, of which read were on disk,
+     * against the page's checksum. A page wholly past the end of the file
+     * is an empty page, and is not checked.
+     *
+     * @throws CorruptPageException if the page is torn or fails its checksum
+     */
+    private void check(int pageNo, byte[] data, int read) {
+        if (read > 0 && read < data.length) {
+            throw new CorruptPageException(String.format(
+                    "page %d of %s is torn: only %d of its %d bytes are on disk",
+                    pageNo, this.f.getName(), read, data.length));
+        }
+        if (read > 0) {
+            this.checksums.verify(pageNo, PageChecksums.checksum(data));
+        }
+    }
+
+    // checks a page read some other way, e.g. through a memory mapping
+    void check(int pageNo, ByteBuffer data) {
+        this.checksums.verify(pageNo, PageChecksums.checksum(data));
+    }
+
+    // reads count pages from page first on with a single scatter read, into
+    // buffers whose positions say how much of each page was on disk
+    private ByteBuffer[] readRun(int first, int count) throws IOException {
+        int pSize = getPageSize();
+        ByteBuffer[] bufs = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            bufs[i] = ByteBuffer.allocate(pSize);
+        }
+        FileChannel c = channel();
+        // batches are the only I/O that uses the channel's position; the
+        // other reads and writes give theirs
+        synchronized (c) {
+            c.position((long) first * pSize);
+            long n = 0;
+            while (n >= 0 && bufs[count - 1].hasRemaining()) {
+                n = c.read(bufs);
+            }
+        }
+        return bufs;
+    }
+
+    /**
+     * Returns the page with the specified id read from the specified bytes,
+     * a HeapPage. Subclasses storing another kind of page override this.
+     */
+    protected TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-        try {
-            int pageSize = BufferPool.getPageSize();
-            int pageNumber = page.getId().getPageNumber();
-            int offset = pageSize * pageNumber;
-
-            RandomAccessFile raf = new RandomAccessFile(f, "rw");
-            raf.seek(offset);
-            raf.write(page.getPageData());
-            raf.close();
-        } catch (Exception e) {
-            e.printStackTrace();
+        int pageSize = getPageSize();
+        int pageNumber = page.getId().getPageNumber();
+        long offset = (long) pageSize * pageNumber;
+
+        byte[] data = page.getPageData();
+        // the checksum goes first, so that a torn write fails its check
+        this.checksums.record(pageNumber, data);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        FileChannel c = channel();
+        while (buf.hasRemaining()) {
+            c.write(buf, offset + buf.position());
+        }
+        written(page);
+    }
+
+    /**
+     * Writes the specified pages in page number order, with one gathered
+     * write for each run of consecutive page numbers among them.
+     */
+    @Override
+    public void writePages(List<Page> pages) throws IOException {
+        if (this.writesOwnPages) {
+            DbFile.super.writePages(pages);
+            return;
+        }
+        Integer[] order = new Integer[pages.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingInt(i -> pages.get(i).getId().getPageNumber()));
+
+        int pSize = getPageSize();
+        FileChannel c = channel();
+        for (int i = 0; i < order.length; ) {
+            int first = pages.get(order[i]).getId().getPageNumber();
+            int count = runLength(pages, order, i, p -> p.getId().getPageNumber());
+            ByteBuffer[] bufs = new ByteBuffer[count];
+            for (int k = 0; k < count; k++) {
+                byte[] data = pages.get(order[i + k]).getPageData();
+                this.checksums.record(first + k, data);
+                bufs[k] = ByteBuffer.wrap(data);
+            }
+            synchronized (c) {
+                c.position((long) first * pSize);
+                while (bufs[count - 1].hasRemaining()) {
+                    c.write(bufs);
+                }
+            }
+            i += count;
+        }
+        for (Page page : pages) {
+            written(page);
+        }
+    }
+
+    /**
+     * Forces the pages written so far to disk, then their checksums.
+     */
+    @Override
+    public void force() throws IOException {
+        FileChannel c = this.channel;
+        if (c != null) {
+            c.force(false);
+        }
+        this.checksums.force();
+    }
+
+    // notes that the specified page is on disk
+    private void written(Page page) {
+        int pageNumber = page.getId().getPageNumber();
+        synchronized (this) {
+            if (pageNumber >= this.pageCount) {
+                this.pageCount = pageNumber + 1;
+            }
+        }
+        if (page instanceof TuplePage) {
+            freeSpace.update(pageNumber, ((TuplePage) page).hasRoom());
         }
     }
 
     /**
-     * Returns the number of pages in this HeapFile.
+     * Returns the number of pages in this HeapFile. This looks at the size
+     * of the file, so it also sees pages appended by other means.
      */
     public int numPages() {
         // some code goes here
-        return (int) f.length() / BufferPool.getPageSize();   // floor come for free
+        if (this.channel == null && !this.f.exists()) {
+            return 0;
+        }
+        int pages;
+        try {
+            pages = (int) (channel().size() / getPageSize());   // floor come for free
+        } catch (IOException e) {
+            e.printStackTrace();
+            pages = (int) (this.f.length() / getPageSize());
+        }
+        synchronized (this) {
+            if (pages > this.pageCount) {
+                this.pageCount = pages;
+            }
+        }
+        return pages;
+    }
+
+    // the page count as of the last append or size check
+    private int cachedNumPages() {
+        int pages = this.pageCount;
+        return pages < 0 ? numPages() : pages;
     }
 
     // see DbFile.java for javadocs
@@ -128,19 +431,43 @@ public class HeapFile implements DbFile {
         // not necessary for lab1
         ArrayList<Page> dirtyPages = new ArrayList<>();
         // I need to know which page I am going to insert this tuple
-        for (int i = 0; i < this.numPages(); i++) {
+        // ask the free space map; each transaction starts looking at its own
+        // page, so that concurrent inserters spread over the file; each page
+        // is tried at most once
+        BufferPool bp = Database.getBufferPool();
+        int pages = this.cachedNumPages();
+        int start = pages == 0 ? 0 : (int) Math.floorMod(tid.getId(), (long) pages);
+        int i = freeSpace.findPage(pages, start);
+        for (int tried = 0; i >= 0 && tried < pages; tried++) {
             PageId pageId = new HeapPageId(this.tableId, i);
-            HeapPage hPage = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
-            if (hPage.getNumEmptySlots() > 0) {
+            // a page tried and left alone is unlocked again, unless the
+            // transaction had locked it before, so that looking for room
+            // does not lock other transactions out of full pages
+            boolean held = bp.holdsLock(tid, pageId);
+            TuplePage hPage = (TuplePage) bp.getPage(tid, pageId, Permissions.READ_WRITE);
+            if (hPage.hasRoomFor(t)) {
                 hPage.insertTuple(t);
                 hPage.markDirty(true,tid);
                 dirtyPages.add(hPage);
+                if (!hPage.hasRoom()) {
+                    freeSpace.update(i, false);
+                }
                 return dirtyPages;
             }
+            // a page may have room for a smaller tuple than t
+            if (!hPage.hasRoom()) {
+                freeSpace.update(i, false);
+            }
+            if (!held) {
+                bp.releaseUnchanged(tid, pageId);
+            }
+            i = freeSpace.findPage(pages, (i + 1) % pages);
         }
         // if we can not find the existing pages have empty slots in them, then we need to add a new HeapPage on
-        // the disk
-        HeapPage newPage = new HeapPage(new HeapPageId(this.tableId, this.numPages()),HeapPage.createEmptyPageData());
+        // the disk; an empty page of any kind is all zeroes
+        TuplePage newPage = createPage(new HeapPageId(this.tableId, this.numPages()), HeapPage.createEmptyPageData(getPageSize()));
+        // snapshot readers must keep seeing the page empty until we commit
+        Database.getBufferPool().preserveVersion(newPage);
         newPage.insertTuple(t);
         newPage.markDirty(true, tid);
         writePage(newPage);
@@ -148,6 +475,18 @@ public class HeapFile implements DbFile {
         return dirtyPages;
     }
 
+    /**
+     * Notes that the BufferPool dropped page, changed by a transaction that
+     * aborted before the page was written: the page is back to its
+     * before-image, so an insert that filled it no longer does.
+     */
+    void discarded(Page page) {
+        if (page instanceof TuplePage) {
+            TuplePage before = (TuplePage) page.getBeforeImage();
+            freeSpace.update(page.getId().getPageNumber(), before.hasRoom());
+        }
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
@@ -162,10 +501,11 @@ public class HeapFile implements DbFile {
         // first u still need to know which page is the tuple belongs to?
         PageId hPageId = t.getRecordId().getPageId();
 //        HeapPage hPage = (HeapPage) this.readPage(hPageId);    // I am not sure if we ccan use this method
-        HeapPage hPage = (HeapPage) Database.getBufferPool().getPage(tid, hPageId, Permissions.READ_WRITE);
+        TuplePage hPage = (TuplePage) Database.getBufferPool().getPage(tid, hPageId, Permissions.READ_WRITE);
         hPage.deleteTuple(t);
         hPage.markDirty(true, tid);
         dirtyPages.add(hPage);
+        freeSpace.update(hPageId.getPageNumber(), true);
         return dirtyPages;
     }
 
@@ -175,26 +515,76 @@ public class HeapFile implements DbFile {
         return new HeapFileIterator(tid);
     }
 
+    /**
+     * Returns an iterator over the tuples of this file that satisfy p.
+     * HeapPage skips the tuples that do not without building them; see
+     * {@link HeapPage#matches}. SeqScan uses this for a Filter above it.
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate p) {
+        return new HeapFileIterator(tid, p);
+    }
+
     public class HeapFileIterator implements DbFileIterator {
 
         private HeapPageId pid;
-        private HeapPage curPg;
+        private TuplePage curPg;
         private int cpn = 0;  // current page Number
         private Iterator<Tuple> itr;
         private TransactionId tid;
+        private Predicate predicate;
         private boolean statusOpen;
+        // the number of pages opened one after the other so far, less one
+        private int run = 0;
+        // pages before this one have been read ahead
+        private int readAheadTo = 0;
 
         public HeapFileIterator(TransactionId tid) {
+            this(tid, null);
+        }
+
+        public HeapFileIterator(TransactionId tid, Predicate predicate) {
             this.tid = tid;
+            this.predicate = predicate;
             this.statusOpen = false;
         }
 
         public void openByPgNum(int pgNum) throws DbException, TransactionAbortedException {
+            BufferPool bp = Database.getBufferPool();
+            boolean sequential = this.pid != null && pgNum == this.cpn + 1;
+            if (sequential) {
+                bp.pageScanned(this.pid);
+                this.run++;
+            } else {
+                this.run = 0;
+                this.readAheadTo = 0;
+            }
             this.cpn = pgNum;
             this.pid = new HeapPageId(getId(), cpn);
-            this.curPg = (HeapPage) Database.getBufferPool().getPage(this.tid,
+            this.curPg = (TuplePage) bp.getPage(this.tid,
                     pid, Permissions.READ_ONLY);
-            this.itr = curPg.iterator();
+            this.itr = curPg.iterator(this.predicate);
+            if (this.run > 0) {
+                readAhead(bp);
+            }
+        }
+
+        // keeps the pages after the current one on their way into the pool,
+        // asking for the next batch once the scan is half way through the last
+        private void readAhead(BufferPool bp) {
+            int window = bp.getReadAheadWindow();
+            if (window == 0 || readsOwnPages) {
+                return;
+            }
+            int from = Math.max(this.readAheadTo, this.cpn + 1);
+            int to = Math.min(this.cpn + 1 + window, cachedNumPages());
+            if (from - this.cpn <= window / 2 + 1 && from < to) {
+                List<PageId> pids = new ArrayList<PageId>(to - from);
+                for (int i = from; i < to; i++) {
+                    pids.add(new HeapPageId(getId(), i));
+                }
+                bp.readAhead(HeapFile.this, pids);
+                this.readAheadTo = to;
+            }
         }
 
         @Override
@@ -218,7 +608,7 @@ public class HeapFile implements DbFile {
             if (this.statusOpen){
                 if (this.itr.hasNext())
                     return true;
-                while (this.cpn + 1 < numPages()) {
+                while (this.cpn + 1 < cachedNumPages() || this.cpn + 1 < numPages()) {
                     openByPgNum(this.cpn + 1);
                     if (this.itr.hasNext())
                         return true;
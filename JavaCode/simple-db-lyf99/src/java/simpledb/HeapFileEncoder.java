@@ -106,6 +106,8 @@ public class HeapFileEncoder {
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
+    PageChecksums.discard(outFile);
+    PageChecksums checksums = new PageChecksums(outFile);
 
     // our numbers probably won't be much larger than 1024 digits
     char buf[] = new char[1024];
@@ -204,11 +206,14 @@ public class HeapFileEncoder {
             for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
                 pageStream.writeByte(0);
             
-            // write header and body to file
+            // write header and body to file, and the page's checksum
             headerStream.flush();
-            headerBAOS.writeTo(os);
             pageStream.flush();
-            pageBAOS.writeTo(os);
+            ByteArrayOutputStream pageBytes = new ByteArrayOutputStream(npagebytes);
+            headerBAOS.writeTo(pageBytes);
+            pageBAOS.writeTo(pageBytes);
+            checksums.record(npages, pageBytes.toByteArray());
+            pageBytes.writeTo(os);
             
             // reset header and body for next page
             headerBAOS = new ByteArrayOutputStream(nheaderbytes);
@@ -222,5 +227,6 @@ public class HeapFileEncoder {
     }
     br.close();
     os.close();
+    checksums.close();
   }
 }
@@ -3,6 +3,8 @@ package simpledb;
 import java.util.*;
 import java.io.*;
 import java.lang.Math;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
@@ -12,21 +14,57 @@ import java.lang.Math;
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
-    final Tuple tuples[];
+    /**
+     * The header bitmap, 64 slots to a word: slot i is used if bit i % 64
+     * of header[i / 64] is set. On disk this is the same bits, 8 slots to
+     * a byte.
+     */
+    final long header[];
+    final AtomicReferenceArray<Tuple> tuples;
     final int numSlots;
+    // the page size of the table the page belongs to
+    private final int pageSize;
+    private final int headerSize;
+    // the number of bits set in header
+    private int numUsed;
+
+    /**
+     * The bytes the page was created from; never modified. A used slot
+     * whose entry in tuples is null still holds the tuple stored here, and
+     * is decoded on first use. Slots the page has changed since have their
+     * Tuple in tuples.
+     * <p>
+     * A page created from a mapped file reads straight from the mapping
+     * until it is detached; see {@link #detach}.
+     */
+    private volatile ByteBuffer raw;
+    private final int[] fieldOffsets;
+
+    /**
+     * What getPageData returns once the page has changed, updated in place
+     * for the slots in changedSlots, whose monitor guards both.
+     */
+    private byte[] image;
+    private ByteBuffer imageBuf;
+    private final BitSet changedSlots = new BitSet();
+    // true if image is also the before-image, and must be copied before it changes
+    private boolean imageShared = false;
 
 
     byte[] oldData;
+    private HeapPage beforeImage;
     private final Byte oldDataLock=new Byte((byte)0);
 
     // Jacky's private fields not final though
     private boolean dirty;
     private TransactionId dirtyTransactionId;  // might not be dirty, but still call it dirtyTransactionId
+    // the LSN of the last log record for this page; kept in memory only,
+    // since the page format has no room for it
+    private volatile long lsn = 0;
 //    private TransactionId cleanTransactionId;  // might cause some problems later.
 
     /**
@@ -34,41 +72,98 @@ public class HeapPage implements Page {
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * database table, which can be determined via {@link Catalog#getTupleDesc},
+     * and page size is the table's, see {@link Catalog#getPageSize}.
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#getPageSize()
+     * @see DbFile#getPageSize()
+     * <p>
+     * Tuples are not decoded until they are used, and the page keeps data
+     * to decode them from, so data must not be changed afterwards.
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding the page in the format
+     * described above, from its position on. A buffer without an
+     * accessible array, e.g. a slice of a memory-mapped file, is not
+     * copied: the page decodes tuples from it until it first changes, or
+     * its bytes or before-image are asked for, and copies it then. A
+     * mapped file changes under the mapping when the file is written,
+     * which the page's lock keeps from happening before that.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.raw = rawOf(data);
+        this.fieldOffsets = new int[td.numFields()];
+        for (int j=1; j<fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j-1] + td.getFieldType(j-1).getLen();
 
         // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
+        headerSize = getHeaderSize();
+        if (raw.limit() < headerSize + numSlots * td.getSize())
+            throw new EOFException("page data is too short");
+        header = new long[(numSlots + 63) >>> 6];
+        for (int b=0; b<headerSize; b++)
+            header[b >>> 3] |= (raw.get(b) & 0xFFL) << ((b & 7) << 3);
+        // ignore any bits past the last slot
+        if ((numSlots & 63) != 0)
+            header[header.length - 1] &= (1L << numSlots) - 1;
+        for (long word : header)
+            numUsed += Long.bitCount(word);
+
+        tuples = new AtomicReferenceArray<>(numSlots);
 
         setBeforeImage();
     }
 
+    // the buffer to keep for data, starting at index 0: getPageData
+    // returns the array of a heap buffer, so one that starts elsewhere in
+    // its array is copied
+    private static ByteBuffer rawOf(ByteBuffer data) {
+        if (!data.hasArray())
+            return data.slice();
+        if (data.arrayOffset() == 0 && data.position() == 0)
+            return data.duplicate();
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Copies the page off the mapping it was created from, so that it no
+     * longer changes with the file, and makes the copy the before-image.
+     * Does nothing for a page that has an array of its own already. Must
+     * be called holding changedSlots before the page changes or hands out
+     * its bytes.
+     */
+    private void detach() {
+        ByteBuffer mapped = raw;
+        if (mapped.hasArray())
+            return;
+        byte[] data = new byte[mapped.limit()];
+        mapped.duplicate().get(data);
+        raw = ByteBuffer.wrap(data);
+        synchronized(oldDataLock)
+        {
+            oldData = data;
+            beforeImage = null;
+        }
+    }
+
     /** Retrieve the number of tuples on this page.
      @return the number of tuples on this page
      */
@@ -76,7 +171,7 @@ public class HeapPage implements Page {
         // some code goes here
         // return this.td.numFields();
         // return (int) Math.floor((BufferPool.getPageSize()*8) / (this.td.getSize() * 8 + 1));
-        return (int) Math.floor((Database.getBufferPool().getPageSize() * 8) / (td.getSize() * 8 + 1.0));
+        return (int) Math.floor((pageSize * 8) / (td.getSize() * 8 + 1.0));
     }
 
     /**
@@ -91,15 +186,19 @@ public class HeapPage implements Page {
     }
 
     /** Return a view of this page before it was modified
-     -- used by recovery */
+     -- used by recovery. The view is built once per before-image and
+     shared by every caller, so it must not be modified. */
     public HeapPage getBeforeImage(){
+        synchronized (changedSlots) {
+            detach();
+        }
         try {
-            byte[] oldDataRef = null;
             synchronized(oldDataLock)
             {
-                oldDataRef = oldData;
+                if (beforeImage == null)
+                    beforeImage = new HeapPage(pid,oldData);
+                return beforeImage;
             }
-            return new HeapPage(pid,oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -108,10 +207,24 @@ public class HeapPage implements Page {
         return null;
     }
 
+    /**
+     * Makes the current contents the before-image. The before-image shares
+     * the page's bytes rather than copying them; the page copies them the
+     * next time it changes instead, so a commit costs nothing for a page
+     * that is not written again. A page still reading from a mapping
+     * keeps the mapping as its before-image until it is detached.
+     */
     public void setBeforeImage() {
-        synchronized(oldDataLock)
-        {
-            oldData = getPageData().clone();
+        synchronized (changedSlots) {
+            if (!raw.hasArray())
+                return;
+            byte[] data = getPageData();
+            imageShared = (data == image);
+            synchronized(oldDataLock)
+            {
+                oldData = data;
+                beforeImage = null;
+            }
         }
     }
 
@@ -123,30 +236,24 @@ public class HeapPage implements Page {
         return this.pid;
     }
 
+    // where the tuple in slot i starts in raw
+    private int slotOffset(int i) {
+        return headerSize + i * td.getSize();
+    }
+
     /**
      * Suck up tuples from the source file.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
-
+    private Tuple readTuple(int slotId) throws NoSuchElementException {
         // read fields in the tuple
         Tuple t = new Tuple(td);
         RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
+        ByteBuffer buf = raw.duplicate();
+        buf.position(slotOffset(slotId));
         try {
             for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
+                Field f = td.getFieldType(j).parse(buf);
                 t.setField(j, f);
             }
         } catch (java.text.ParseException e) {
@@ -157,10 +264,82 @@ public class HeapPage implements Page {
         return t;
     }
 
+    // returns the tuple in slot i, decoding it on first use, or null if the
+    // slot is empty. Readers sharing the page may race to decode a slot;
+    // the first one to publish its Tuple wins.
+    private Tuple tupleAt(int i) {
+        Tuple t = tuples.get(i);
+        if (t == null && isSlotUsed(i)) {
+            t = readTuple(i);
+            if (!tuples.compareAndSet(i, null, t))
+                t = tuples.get(i);
+        }
+        return t;
+    }
+
+    /**
+     * Returns field j of the tuple in slot i, decoding only that field if
+     * the tuple has not been decoded yet.
+     *
+     * @throws NoSuchElementException if slot i is empty
+     */
+    public Field getField(int i, int j) {
+        Tuple t = tuples.get(i);
+        if (t != null)
+            return t.getField(j);
+        if (!isSlotUsed(i))
+            throw new NoSuchElementException("slot " + i + " is empty");
+        ByteBuffer buf = raw.duplicate();
+        buf.position(slotOffset(i) + fieldOffsets[j]);
+        try {
+            return td.getFieldType(j).parse(buf);
+        } catch (java.text.ParseException e) {
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
+    /**
+     * Returns field j, which must be an INT_TYPE, of the tuple in slot i.
+     * Reads the page bytes directly unless the tuple is decoded already,
+     * so it allocates nothing.
+     *
+     * @throws NoSuchElementException if slot i is empty
+     */
+    public int getInt(int i, int j) {
+        Tuple t = tuples.get(i);
+        if (t != null)
+            return ((IntField) t.getField(j)).getValue();
+        if (!isSlotUsed(i))
+            throw new NoSuchElementException("slot " + i + " is empty");
+        return raw.getInt(slotOffset(i) + fieldOffsets[j]);
+    }
+
+    /**
+     * Returns true if slot i holds a tuple that satisfies p. A comparison
+     * on an INT_TYPE field reads the page bytes and allocates nothing;
+     * other comparisons decode only the field compared.
+     */
+    public boolean matches(int i, Predicate p) {
+        Tuple t = tuples.get(i);
+        if (t != null)
+            return p.filter(t);
+        if (!isSlotUsed(i))
+            return false;
+        int j = p.getField();
+        if (td.getFieldType(j) == Type.INT_TYPE)
+            return IntField.compare(getInt(i, j), p.getOp(), ((IntField) p.getOperand()).getValue());
+        return getField(i, j).compare(p.getOp(), p.getOperand());
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
      * <p>
+     * The array belongs to the page: callers must not change it, and it
+     * may change when the page does. A page that has not changed returns
+     * the bytes it was created from; otherwise only the slots changed
+     * since the last call are serialized again.
+     * <p>
      * The invariant here is that it should be possible to pass the byte
      * array generated by getPageData to the HeapPage constructor and
      * have it produce an identical HeapPage object.
@@ -169,64 +348,47 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
+        synchronized (changedSlots) {
+            detach();
+            byte[] data = raw.array();
+            if (image == null) {
+                if (changedSlots.isEmpty() && data.length == pageSize)
+                    return data;
+                // first change: take a copy of our own to update in place
+                image = Arrays.copyOf(data, pageSize);
+                imageBuf = ByteBuffer.wrap(image);
+            }
+            if (changedSlots.isEmpty())
+                return image;
+            if (imageShared) {
+                image = image.clone();
+                imageBuf = ByteBuffer.wrap(image);
+                imageShared = false;
             }
-        }
 
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+            // create the header of the page
+            for (int b=0; b<headerSize; b++)
+                image[b] = (byte) (header[b >>> 3] >>> ((b & 7) << 3));
 
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+            // re-serialize only the slots changed since the last call
+            for (int i = changedSlots.nextSetBit(0); i >= 0; i = changedSlots.nextSetBit(i + 1)) {
+                int offset = slotOffset(i);
+                Tuple t = tuples.get(i);
 
+                // empty slot
+                if (t == null) {
+                    Arrays.fill(image, offset, offset + td.getSize(), (byte) 0);
+                    continue;
                 }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
 
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+                // non-empty slot
+                imageBuf.position(offset);
+                for (int j=0; j<td.numFields(); j++)
+                    t.getField(j).serialize(imageBuf);
             }
+            changedSlots.clear();
+            return image;
         }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
     }
 
     /**
@@ -239,8 +401,17 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.getPageSize();
-        return new byte[len]; //all 0
+        return createEmptyPageData(BufferPool.getPageSize());
+    }
+
+    /**
+     * Returns the bytes of an empty HeapPage of the specified size, for a
+     * table with its own page size.
+     *
+     * @see DbFile#getPageSize()
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
     }
 
     /**
@@ -262,8 +433,12 @@ public class HeapPage implements Page {
         } else if (!isSlotUsed(tupleNo)) {
             throw new DbException("the tuple slot is already empty!");
         }
-        tuples[tupleNo] = null;
-        markSlotUsed(tupleNo, false);
+        synchronized (changedSlots) {
+            detach();
+            tuples.set(tupleNo, null);
+            markSlotUsed(tupleNo, false);
+            changedSlots.set(tupleNo);
+        }
     }
 
     /**
@@ -279,20 +454,44 @@ public class HeapPage implements Page {
         if (!t.getTupleDesc().equals(this.td)) {
             throw new DbException("tupledesc" + " is mismatch.");
         }
-        if (getNumEmptySlots() == 0) {
+        int i = firstEmptySlot();
+        if (i < 0) {
             throw new DbException("the page is full!");
         }
-        for (int i = 0; i < this.numSlots; i++) {
-            if (!isSlotUsed(i)) {
-                this.tuples[i] = t;
-                // updating header and updating the numslots
-//                header[i] = 1;
-                markSlotUsed(i, true);
-                t.setRecordId(new RecordId(this.pid, i));
-                break;
+        synchronized (changedSlots) {
+            detach();
+            this.tuples.set(i, t);
+            // updating header and updating the numslots
+            markSlotUsed(i, true);
+            changedSlots.set(i);
+        }
+        t.setRecordId(new RecordId(this.pid, i));
+    }
+
+    // the first empty slot, or -1 if the page is full
+    private int firstEmptySlot() {
+        for (int w = 0; w < header.length; w++) {
+            long empty = ~header[w];
+            if (empty != 0) {
+                int i = (w << 6) + Long.numberOfTrailingZeros(empty);
+                return i < numSlots ? i : -1;
             }
         }
-        // need to modify the header bitmap, using getNumEmptySlots() and isSlotUsed() would be really helpful!
+        return -1;
+    }
+
+    // the first used slot from i on, or numSlots if there is none
+    private int nextUsedSlot(int i) {
+        int w = i >>> 6;
+        if (w >= header.length)
+            return numSlots;
+        long used = header[w] & (-1L << i);
+        while (used == 0) {
+            if (++w == header.length)
+                return numSlots;
+            used = header[w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(used);
 
 
     }
@@ -323,16 +522,28 @@ public class HeapPage implements Page {
         return null;
     }
 
+    public long getLSN() {
+        return this.lsn;
+    }
+
+    public void setLSN(long lsn) {
+        this.lsn = lsn;
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
+    public boolean hasRoom() {
+        return getNumEmptySlots() > 0;
+    }
+
     /**
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
         // some code goes here
-        int count = 0;
-        for (int i = 0; i < this.numSlots; i++) {
-            count += isSlotUsed(i) ? 0:1;
-        }
-        return count;
+        return this.numSlots - this.numUsed;
     }
 
     /**
@@ -346,9 +557,7 @@ public class HeapPage implements Page {
 
         // 2. go to tuples[]
         // return tuples[i] == null;
-        byte hB = header[i/8];
-        int b = hB >> (i % 8);
-        return (b & 1) != 0;
+        return (header[i >>> 6] & (1L << i)) != 0;
 
         // return false;
     }
@@ -359,12 +568,11 @@ public class HeapPage implements Page {
     private void markSlotUsed(int i, boolean value) {
         // some code goes here
         // not necessary for lab1
-        int index = i/8;
-        if (!value) {
-            header[index] &= ~(1 << (i % 8));
-        } else {
-            header[index] |= 1 << (i % 8);
+        if (isSlotUsed(i) == value) {
+            return;
         }
+        header[i >>> 6] ^= 1L << i;
+        numUsed += value ? 1 : -1;
     }
 
     /**
@@ -373,26 +581,40 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        Iterator<Tuple> itr = new Iterator<Tuple>(){
-            private int numEmptySlot = getNumEmptySlots();
-            private int currentIndex = 0;
-            private int numSlot = getNumTuples() - numEmptySlot;
+        return iterator(null);
+    }
+
+    /**
+     * @return an iterator over the tuples on this page that satisfy p, or
+     * over all of them if p is null. Tuples that do not satisfy p are
+     * never decoded; see {@link #matches}.
+     */
+    public Iterator<Tuple> iterator(Predicate p) {
+        return new Iterator<Tuple>(){
+            private int currentIndex = advance(0);
+
+            // the first slot from i on holding a tuple to return
+            private int advance(int i) {
+                i = nextUsedSlot(i);
+                while (i < numSlots && p != null && !matches(i, p))
+                    i = nextUsedSlot(i + 1);
+                return i;
+            }
 
             @Override
             public boolean hasNext() {
-                return currentIndex < numSlot;
+                return currentIndex < numSlots;
             }
 
             @Override
             public Tuple next() {
-                while(!isSlotUsed(currentIndex)){
-                    currentIndex++;
-                }
-                return tuples[currentIndex++];
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = tupleAt(currentIndex);
+                currentIndex = advance(currentIndex + 1);
+                return t;
             }
         };
-        return itr;
     }
 
 }
-
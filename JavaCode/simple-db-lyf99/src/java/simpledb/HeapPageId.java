@@ -74,6 +74,10 @@ public class HeapPageId implements PageId {
         return pid.getTableId() == this.tableId && pid.getPageNumber() == this.pgNo;
     }
 
+    public String toString() {
+        return "HeapPageId(" + this.tableId + ", " + this.pgNo + ")";
+    }
+
     /**
      *  Return a representation of this object as an array of
      *  integers, for writing to disk.  Size of returned array must contain
@@ -2,186 +2,690 @@ package simpledb;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * LockManager keeps the locks of strict two-phase locking at three
+ * granularities: tables, pages and tuples. Locks are taken in the
+ * {@link LockMode}s IS, IX, S, SIX and X. Locking a page for reading or
+ * writing first takes IS or IX on its table, and locking a tuple also takes
+ * IS or IX on its page. A table lock in S, SIX or X covers the pages and
+ * tuples under it, so no locks are taken for them.
+ * <p>
+ * Once a transaction holds more than the escalation threshold of page
+ * locks in one table, the lock manager tries to trade them for a single S
+ * or X lock on the table. Escalation never waits: if the table lock cannot
+ * be granted at once, the transaction keeps locking pages and tries again
+ * on its next page lock in that table.
+ * <p>
+ * The lock table is striped: each lock hashes to one of
+ * {@link #NUM_STRIPES} latches, and only that latch is taken to grant or
+ * release it, so transactions working on different pages do not contend. A
+ * transaction that already holds a strong enough lock returns without
+ * taking any latch at all.
+ * <p>
+ * Each lock has a FIFO queue of waiting requests. A new request is granted
+ * straight away only if it is compatible with the holders and nobody is
+ * queued ahead of it, so a stream of readers cannot starve a writer. Lock
+ * upgrades go to the front of the queue. When a lock is released, the
+ * releasing thread grants as many requests from the head of the queue as
+ * are compatible and wakes exactly those waiters.
+ * <p>
+ * Deadlocks are handled as the {@link DeadlockPolicy} says. By default a
+ * {@link WaitsForGraph} is kept up to date as requests block and are
+ * granted, and every new edge is checked for a cycle; the
+ * {@link VictimPolicy} picks which transaction on the cycle to abort.
+ * Wait-die and wound-wait instead compare transaction ages and never let a
+ * cycle form.
+ * <p>
+ * The locks each transaction holds are indexed by transaction, so
+ * {@link #releaseLockTid} costs time proportional to the locks that
+ * transaction holds, not to the size of the lock table.
+ * <p>
+ * A request may carry a timeout, after which it gives up waiting and the
+ * transaction is aborted. What the lock manager does is counted in its
+ * {@link LockMetrics}.
+ */
 public class LockManager {
-    private Map<PageId, HashSet<TransactionId>> sharedLocks;
-    private Map<PageId, TransactionId> exclusiveLocks;
-    private Map<TransactionId, HashSet<TransactionId>> graph;
+    public static final int NUM_STRIPES = 64;
 
+    /** Timeout value meaning a request waits until it is granted or aborted. */
+    public static final long NO_TIMEOUT = 0;
 
+    /** Page locks a transaction may hold in one table before escalation. */
+    public static final int DEFAULT_ESCALATION_THRESHOLD = 512;
+
+    /** How deadlocks are prevented or broken. */
+    public enum DeadlockPolicy {
+        /** Let transactions wait, and abort a victim when a cycle forms. */
+        DETECT,
+        /** A transaction may only wait for younger ones; otherwise it aborts. */
+        WAIT_DIE,
+        /** A transaction aborts the younger ones it would wait for. */
+        WOUND_WAIT
+    }
+
+    /** Which transaction on a waits-for cycle is aborted under DETECT. */
+    public enum VictimPolicy {
+        /** The transaction whose request closed the cycle. */
+        REQUESTER,
+        /** The most recently started transaction. */
+        YOUNGEST,
+        /** The transaction holding the fewest locks. */
+        FEWEST_LOCKS,
+        /** The transaction that has written the fewest bytes of log. */
+        LEAST_LOG_WRITTEN
+    }
+
+    /** The key of a table lock in the lock table. */
+    private static final class TableKey {
+        final int tableId;
+
+        TableKey(int tableId) {
+            this.tableId = tableId;
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof TableKey && ((TableKey) o).tableId == this.tableId;
+        }
+
+        public int hashCode() {
+            return this.tableId;
+        }
+
+        public String toString() {
+            return "Table(" + this.tableId + ")";
+        }
+    }
+
+    /** A request waiting in a lock's queue. */
+    private static class LockRequest {
+        final TransactionId tid;
+        final LockMode mode;  // the mode tid will hold once granted
+        final Thread waiter;
+        volatile boolean granted;
+        volatile boolean aborted;
+
+        LockRequest(TransactionId tid, LockMode mode) {
+            this.tid = tid;
+            this.mode = mode;
+            this.waiter = Thread.currentThread();
+        }
+    }
+
+    /**
+     * State of one table, page or tuple lock. Holders and queue are only
+     * changed under the lock's stripe latch; holders may be read without it.
+     */
+    private static class ResourceLock {
+        final Map<TransactionId, LockMode> holders = new ConcurrentHashMap<>();
+        final LinkedList<LockRequest> queue = new LinkedList<>();
+
+        boolean isUnused() {
+            return holders.isEmpty() && queue.isEmpty();
+        }
+    }
+
+    /** The locks one transaction holds. */
+    private static class HeldLocks {
+        final Set<Object> keys = ConcurrentHashMap.newKeySet();
+        final Map<Integer, AtomicInteger> pagesPerTable = new ConcurrentHashMap<>();
+    }
+
+    private final DeadlockPolicy deadlockPolicy;
+    private final VictimPolicy victimPolicy;
+    private final ReentrantLock[] stripes;
+    private final Map<Object, ResourceLock> locks;
+    private final Map<TransactionId, HeldLocks> heldLocks;
+    private final WaitsForGraph graph;
+    private final Map<TransactionId, LockRequest> waiting;  // guarded by graph
+    private final Set<TransactionId> wounded;  // changed under graph
+    private final LockMetrics metrics;
+    private volatile long defaultTimeoutMillis = NO_TIMEOUT;
+    private volatile int escalationThreshold = DEFAULT_ESCALATION_THRESHOLD;
+
+    /**
+     * Creates a LockManager that detects deadlocks and aborts the
+     * transaction whose request closed the cycle.
+     */
     public LockManager() {
-        sharedLocks = new ConcurrentHashMap<>();
-        exclusiveLocks = new ConcurrentHashMap<>();
-        graph = new ConcurrentHashMap<>();
+        this(DeadlockPolicy.DETECT, VictimPolicy.REQUESTER);
     }
 
-    public synchronized void grabLock(TransactionId tid, PageId pid, Permissions perm) throws TransactionAbortedException {
-        // if the lock is held, we just simply return
-        if (perm.equals(Permissions.READ_ONLY)) {  // READ_ONLY
-            if (holdsLock(tid, pid)) {
-                return;
+    /**
+     * Creates a LockManager with the given deadlock handling.
+     *
+     * @param deadlockPolicy how deadlocks are prevented or broken
+     * @param victimPolicy which transaction on a cycle is aborted; only
+     *   used with DeadlockPolicy.DETECT
+     */
+    public LockManager(DeadlockPolicy deadlockPolicy, VictimPolicy victimPolicy) {
+        this.deadlockPolicy = deadlockPolicy;
+        this.victimPolicy = victimPolicy;
+        stripes = new ReentrantLock[NUM_STRIPES];
+        for (int i = 0; i < NUM_STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        locks = new ConcurrentHashMap<>();
+        heldLocks = new ConcurrentHashMap<>();
+        graph = new WaitsForGraph();
+        waiting = new HashMap<>();
+        wounded = ConcurrentHashMap.newKeySet();
+        metrics = new LockMetrics();
+    }
+
+    /** Returns the counters of this lock manager. */
+    public LockMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the timeout used by {@link #grabLock(TransactionId, PageId, Permissions)}.
+     *
+     * @param timeoutMillis the timeout in milliseconds, or NO_TIMEOUT
+     */
+    public void setDefaultTimeout(long timeoutMillis) {
+        this.defaultTimeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Sets how many page locks a transaction may hold in one table before
+     * they are escalated to a table lock.
+     *
+     * @param pages the threshold, or Integer.MAX_VALUE to never escalate
+     */
+    public void setEscalationThreshold(int pages) {
+        this.escalationThreshold = pages;
+    }
+
+    private ReentrantLock stripeOf(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return stripes[h & (NUM_STRIPES - 1)];
+    }
+
+    /**
+     * Acquires a lock on pid for tid, waiting no longer than the default
+     * timeout.
+     *
+     * @see #grabLock(TransactionId, PageId, Permissions, long)
+     */
+    public void grabLock(TransactionId tid, PageId pid, Permissions perm) throws TransactionAbortedException {
+        grabLock(tid, pid, perm, defaultTimeoutMillis);
+    }
+
+    /**
+     * Acquires a page lock for tid: IS or IX on the table, then S or X on
+     * the page, unless a table lock already covers the page. Blocks while
+     * another transaction holds a conflicting lock or an earlier request is
+     * still waiting. A lock tid already holds is upgraded in place.
+     *
+     * @param timeoutMillis how long to wait for each lock at most, or NO_TIMEOUT
+     * @throws TransactionAbortedException if tid is chosen to break or
+     *   prevent a deadlock, the timeout expires, or the waiting thread is
+     *   interrupted
+     */
+    public void grabLock(TransactionId tid, PageId pid, Permissions perm, long timeoutMillis)
+            throws TransactionAbortedException {
+        LockMode mode = LockMode.of(perm);
+        TableKey table = new TableKey(pid.getTableId());
+        // fast path: the lock is already held, no latch needed
+        if (holds(tid, table, mode) || holds(tid, pid, mode)) {
+            return;
+        }
+        lock(tid, table, LockMode.intentionOf(perm), timeoutMillis);
+        lock(tid, pid, mode, timeoutMillis);
+        maybeEscalate(tid, table);
+    }
+
+    /**
+     * Acquires a tuple lock for tid: IS or IX on the table and on the page,
+     * then S or X on the tuple, unless the table or page lock already covers
+     * the tuple.
+     *
+     * @param timeoutMillis how long to wait for each lock at most, or NO_TIMEOUT
+     * @throws TransactionAbortedException as grabLock does
+     */
+    public void grabRecordLock(TransactionId tid, RecordId rid, Permissions perm, long timeoutMillis)
+            throws TransactionAbortedException {
+        LockMode mode = LockMode.of(perm);
+        LockMode intention = LockMode.intentionOf(perm);
+        PageId pid = rid.getPageId();
+        TableKey table = new TableKey(pid.getTableId());
+        if (holds(tid, table, mode) || holds(tid, pid, mode) || holds(tid, rid, mode)) {
+            return;
+        }
+        lock(tid, table, intention, timeoutMillis);
+        lock(tid, pid, intention, timeoutMillis);
+        lock(tid, rid, mode, timeoutMillis);
+    }
+
+    /**
+     * Acquires a lock on a whole table for tid.
+     *
+     * @param timeoutMillis how long to wait at most, or NO_TIMEOUT
+     * @throws TransactionAbortedException as grabLock does
+     */
+    public void grabTableLock(TransactionId tid, int tableId, LockMode mode, long timeoutMillis)
+            throws TransactionAbortedException {
+        lock(tid, new TableKey(tableId), mode, timeoutMillis);
+    }
+
+    /**
+     * Returns the mode tid holds on the table, or null if none.
+     */
+    public LockMode getTableLockMode(TransactionId tid, int tableId) {
+        return heldMode(tid, new TableKey(tableId));
+    }
+
+    // trades tid's page locks in the table for a table lock if tid holds
+    // too many of them and the table lock can be had without waiting
+    private void maybeEscalate(TransactionId tid, TableKey table) {
+        HeldLocks held = heldLocks.get(tid);
+        if (held == null) {
+            return;
+        }
+        AtomicInteger pages = held.pagesPerTable.get(table.tableId);
+        if (pages == null || pages.get() <= escalationThreshold) {
+            return;
+        }
+        LockMode current = heldMode(tid, table);
+        LockMode target = current != null && current.covers(LockMode.IX) ? LockMode.X : LockMode.S;
+        if (!tryLock(tid, table, target)) {
+            return;
+        }
+        for (Object key : held.keys) {
+            if (key instanceof PageId && ((PageId) key).getTableId() == table.tableId) {
+                releaseLock(tid, (PageId) key);
             }
-            create_sharedLocks(tid, pid, perm);
-        } else {  // READ_WRITE
-            if (holdsExclusiveLock(tid, pid)) {
-                // tid already has an exclusive lock with this tid on this page
-                return;
+        }
+        metrics.recordEscalation();
+    }
+
+    // returns the mode tid holds on key, or null
+    private LockMode heldMode(TransactionId tid, Object key) {
+        ResourceLock lock = locks.get(key);
+        return lock == null ? null : lock.holders.get(tid);
+    }
+
+    // true if tid holds a mode on key that covers mode; needs no latch
+    private boolean holds(TransactionId tid, Object key, LockMode mode) {
+        LockMode held = heldMode(tid, key);
+        return held != null && held.covers(mode);
+    }
+
+    // grants mode on key to tid if that can be done without waiting
+    private boolean tryLock(TransactionId tid, Object key, LockMode mode) {
+        ReentrantLock latch = stripeOf(key);
+        latch.lock();
+        try {
+            ResourceLock lock = locks.get(key);
+            if (lock == null) {
+                lock = new ResourceLock();
+                locks.put(key, lock);
+            }
+            LockMode current = lock.holders.get(tid);
+            LockMode target = mode.combine(current);
+            if ((current != null || lock.queue.isEmpty()) && isCompatible(lock, tid, target)) {
+                grant(key, lock, tid, target);
+                return true;
             }
-            create_exclusiveLocks(tid, pid, perm);
+            releaseIfUnused(key, lock);
+            return false;
+        } finally {
+            latch.unlock();
         }
     }
 
-    private void addToGraph(TransactionId tid, PageId pid) throws TransactionAbortedException {
-        HashSet<TransactionId> wait = (graph.containsKey(tid)) ? graph.get(tid) : new HashSet<>();
-        wait.add(exclusiveLocks.get(pid));
-        graph.put(tid, wait);
-        if (detectDeadLock(tid)) {
-            removeFromGraph(tid);
+    // acquires mode on key for tid, waiting if need be
+    private void lock(TransactionId tid, Object key, LockMode mode, long timeoutMillis)
+            throws TransactionAbortedException {
+        if (holds(tid, key, mode)) {
+            return;
+        }
+        if (wounded.contains(tid)) {
+            metrics.recordDeadlockAbort();
             throw new TransactionAbortedException();
         }
-    }
 
-    // private helper method for waiting the exclusive/shared lock recursively
-    // by using recursive grabLock function
-    // @Parameters: TransactionId tid, PageId pid, Permissions perm
-    private void waitLock(TransactionId tid, PageId pid, Permissions perm) {
+        ReentrantLock latch = stripeOf(key);
+        latch.lock();
         try {
-            this.wait();
-            grabLock(tid, pid, perm);
-        } catch (InterruptedException | TransactionAbortedException e) {
-            e.printStackTrace();
-        }
-    }
-
-    // private void create sharedLocks, put the pid and tid in the sharedLocks(map)
-    private void create_sharedLocks(TransactionId tid, PageId pid, Permissions perm) throws TransactionAbortedException {
-        if (exclusiveLocks.containsKey(pid)) {
-            addToGraph(tid, pid);
-            waitLock(tid, pid, perm);
-        }
-        // no exclusive lock on this page
-        HashSet<TransactionId> tids = (sharedLocks.containsKey(pid)) ? sharedLocks.get(pid) : new HashSet<TransactionId>();
-        tids.add(tid);
-        sharedLocks.put(pid, tids);
-        removeFromGraph(tid);
-    }
-
-    // private void create exclusiveLocks, put the pid and tid in the exclusiveLocks(map)
-    private void create_exclusiveLocks(TransactionId tid, PageId pid, Permissions perm) throws TransactionAbortedException {
-        if (exclusiveLocks.containsKey(pid)) {
-            addToGraph(tid, pid);
-            waitLock(tid,pid,perm);
-        } else {
-            if (sharedLocks.containsKey(pid)) {
-                HashSet<TransactionId> tids = sharedLocks.get(pid);
-                if (tids.size() == 1 && tids.contains(tid)) {
-                    // when there is a shared lock on this tid, we need upgrade to an exclusive lock
-                    sharedLocks.remove(pid);
-                    exclusiveLocks.put(pid, tid);
-                    removeFromGraph(tid);
-                } else {
-                    HashSet<TransactionId> wait = graph.containsKey(tid) ? graph.get(tid) : new HashSet<>();
-                    wait.addAll(tids);
-                    wait.remove(tid);
-                    graph.put(tid, wait);
-                    if (detectDeadLock(tid)) {
-                        removeFromGraph(tid);
+            ResourceLock lock = locks.get(key);
+            if (lock == null) {
+                lock = new ResourceLock();
+                locks.put(key, lock);
+            }
+            LockMode current = lock.holders.get(tid);
+            LockMode target = mode.combine(current);
+            boolean upgrade = current != null;
+            if ((upgrade || lock.queue.isEmpty()) && isCompatible(lock, tid, target)) {
+                grant(key, lock, tid, target);
+                return;
+            }
+
+            LockRequest request = new LockRequest(tid, target);
+            if (upgrade) {
+                lock.queue.addFirst(request);
+            } else {
+                lock.queue.addLast(request);
+            }
+            metrics.recordQueued(key);
+            long start = System.nanoTime();
+            try {
+                if (!mayWait(request, blockers(lock, request))) {
+                    metrics.recordDeadlockAbort();
+                    throw new TransactionAbortedException();
+                }
+                if (upgrade) {
+                    // the requests behind an upgrade now wait for it as well
+                    refreshEdges(lock);
+                }
+                long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+                while (!request.granted && !request.aborted) {
+                    long remaining = deadline - System.nanoTime();
+                    if (timeoutMillis != NO_TIMEOUT && remaining <= 0) {
+                        metrics.recordTimeout();
                         throw new TransactionAbortedException();
                     }
-                    waitLock(tid, pid, perm);
+                    latch.unlock();
+                    try {
+                        if (timeoutMillis == NO_TIMEOUT) {
+                            LockSupport.park(this);
+                        } else {
+                            LockSupport.parkNanos(this, remaining);
+                        }
+                    } finally {
+                        latch.lock();
+                    }
+                    if (Thread.interrupted()) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                if (!request.granted) {
+                    if (request.aborted) {
+                        metrics.recordDeadlockAbort();
+                    }
+                    throw new TransactionAbortedException();
+                }
+            } finally {
+                metrics.recordWait(System.nanoTime() - start);
+                if (!request.granted) {
+                    // do not leave a stale request behind
+                    abandon(key, lock, request);
                 }
-            } else {  // there is no lock on this page
-                exclusiveLocks.put(pid, tid);
-                removeFromGraph(tid);
             }
+        } finally {
+            latch.unlock();
         }
     }
 
-    // releaseLockTid release the lock with tid only
-    public synchronized void releaseLockTid(TransactionId tid) {
-        Set<PageId> releasePages = new HashSet<>();
-        for (PageId pid : sharedLocks.keySet()) {
-            HashSet<TransactionId> tids = sharedLocks.get(pid);
-            if (tids != null && tids.contains(tid)) {
-                tids.remove(tid);
-                if (tids.size() == 0) {
-                    releasePages.add(pid);
-                } else {
-                    sharedLocks.put(pid, tids);
+    // decides whether the queued request may wait for blocking, aborting
+    // other transactions if the deadlock policy says so
+    // must hold the lock's stripe latch
+    private boolean mayWait(LockRequest request, Set<TransactionId> blocking) {
+        TransactionId tid = request.tid;
+        synchronized (graph) {
+            if (wounded.contains(tid)) {
+                return false;
+            }
+            switch (deadlockPolicy) {
+            case WAIT_DIE:
+                for (TransactionId other : blocking) {
+                    if (other.getId() < tid.getId()) {
+                        return false;
+                    }
+                }
+                break;
+            case WOUND_WAIT:
+                for (TransactionId other : blocking) {
+                    if (other.getId() > tid.getId()) {
+                        wound(other);
+                    }
+                }
+                break;
+            default:
+                List<TransactionId> cycle = graph.setEdges(tid, blocking);
+                if (cycle != null && !breakCycle(cycle)) {
+                    graph.removeEdges(tid);
+                    return false;
                 }
+                break;
             }
+            waiting.put(tid, request);
+            return true;
         }
-        for (PageId pid : releasePages) {
-            sharedLocks.remove(pid);
+    }
+
+    // aborts the victim of a cycle closed by the request of cycle.get(0);
+    // false if the victim is that requester itself
+    // must hold the graph monitor
+    private boolean breakCycle(List<TransactionId> cycle) {
+        TransactionId victim = chooseVictim(cycle);
+        LockRequest request = waiting.get(victim);
+        if (victim.equals(cycle.get(0)) || request == null) {
+            return false;
         }
-        releasePages.clear();
+        abort(request);
+        return true;
+    }
 
-        for (PageId pid : exclusiveLocks.keySet()) {
-            if (exclusiveLocks.containsKey(pid) && exclusiveLocks.get(pid).equals(tid)) {
-                releasePages.add(pid);
+    // must hold the graph monitor
+    private TransactionId chooseVictim(List<TransactionId> cycle) {
+        TransactionId victim = cycle.get(0);
+        if (victimPolicy == VictimPolicy.REQUESTER) {
+            return victim;
+        }
+        long best = Long.MAX_VALUE;
+        for (TransactionId tid : cycle) {
+            long cost;
+            switch (victimPolicy) {
+            case FEWEST_LOCKS:
+                HeldLocks held = heldLocks.get(tid);
+                cost = held == null ? 0 : held.keys.size();
+                break;
+            case LEAST_LOG_WRITTEN:
+                cost = Database.getLogFile().getBytesLogged(tid);
+                break;
+            default:
+                cost = 0;
+                break;
+            }
+            // ties go to the youngest transaction
+            if (cost < best || (cost == best && tid.getId() > victim.getId())) {
+                best = cost;
+                victim = tid;
             }
         }
-        for (PageId pid : releasePages) {
-            exclusiveLocks.remove(pid);
+        return victim;
+    }
+
+    // marks tid to abort the next time it asks for a lock, and aborts the
+    // request it is waiting on now, if any
+    // must hold the graph monitor
+    private void wound(TransactionId tid) {
+        wounded.add(tid);
+        LockRequest request = waiting.get(tid);
+        if (request != null) {
+            abort(request);
         }
-        notifyAll();
     }
 
-    // release Lock release the Lock, and need two parameters: tid, and pid
-    public synchronized void releaseLock(TransactionId tid, PageId pid) {
-        HashSet<TransactionId> tids = sharedLocks.get(pid);
-        if (tids != null && tids.contains(tid)) {
-            tids.remove(tid);
-            if (tids.size() == 0) {
-                sharedLocks.remove(pid);
-            } else {
-                sharedLocks.put(pid, tids);
+    // must hold the graph monitor
+    private void abort(LockRequest request) {
+        request.aborted = true;
+        waiting.remove(request.tid);
+        graph.removeEdges(request.tid);
+        LockSupport.unpark(request.waiter);
+    }
+
+    // true if tid could hold mode given the other holders
+    // must hold the lock's stripe latch
+    private static boolean isCompatible(ResourceLock lock, TransactionId tid, LockMode mode) {
+        for (Map.Entry<TransactionId, LockMode> holder : lock.holders.entrySet()) {
+            if (!holder.getKey().equals(tid) && !mode.isCompatible(holder.getValue())) {
+                return false;
             }
         }
-        if (exclusiveLocks.containsKey(pid) && exclusiveLocks.get(pid).equals(tid)) {
-            exclusiveLocks.remove(pid);
-        }
-        notifyAll();
+        return true;
     }
 
-    // returns true if the transaction has a lock on the certain page
-    public boolean holdsLock(TransactionId tid, PageId pid) {
-        return holdsSharedLock(tid, pid) || holdsExclusiveLock(tid, pid);
+    // mode already includes whatever tid held before
+    // must hold the lock's stripe latch
+    private void grant(Object key, ResourceLock lock, TransactionId tid, LockMode mode) {
+        LockMode previous = lock.holders.put(tid, mode);
+        if (previous == mode) {
+            return;
+        }
+        metrics.recordGrant(previous != null);
+        if (previous == null) {
+            HeldLocks held = heldLocks.computeIfAbsent(tid, k -> new HeldLocks());
+            held.keys.add(key);
+            if (key instanceof PageId) {
+                held.pagesPerTable.computeIfAbsent(((PageId) key).getTableId(),
+                        k -> new AtomicInteger()).incrementAndGet();
+            }
+        }
     }
 
-    private boolean holdsSharedLock(TransactionId tid, PageId pid) {
-        return sharedLocks.containsKey(pid) && sharedLocks.get(pid).contains(tid);
+    // the transactions that the queued request waits for: holders and live
+    // requests ahead of it in the queue whose modes conflict with it
+    // must hold the lock's stripe latch
+    private static Set<TransactionId> blockers(ResourceLock lock, LockRequest request) {
+        Set<TransactionId> blocking = new HashSet<>();
+        for (Map.Entry<TransactionId, LockMode> holder : lock.holders.entrySet()) {
+            if (!request.mode.isCompatible(holder.getValue())) {
+                blocking.add(holder.getKey());
+            }
+        }
+        for (LockRequest ahead : lock.queue) {
+            if (ahead == request) {
+                break;
+            }
+            if (!ahead.aborted && !request.mode.isCompatible(ahead.mode)) {
+                blocking.add(ahead.tid);
+            }
+        }
+        blocking.remove(request.tid);
+        return blocking;
     }
 
-    private boolean holdsExclusiveLock(TransactionId tid, PageId pid) {
-        return exclusiveLocks.containsKey(pid) && exclusiveLocks.get(pid).equals(tid);
+    // grants requests from the head of the queue for as long as they are
+    // compatible, then refreshes the waits-for edges of those still queued
+    // must hold the lock's stripe latch
+    private void grantWaiters(Object key, ResourceLock lock) {
+        Iterator<LockRequest> it = lock.queue.iterator();
+        while (it.hasNext()) {
+            LockRequest request = it.next();
+            if (request.aborted) {
+                // its thread takes it out of the queue when it wakes up
+                continue;
+            }
+            if (!isCompatible(lock, request.tid, request.mode)) {
+                break;
+            }
+            it.remove();
+            grant(key, lock, request.tid, request.mode.combine(lock.holders.get(request.tid)));
+            synchronized (graph) {
+                waiting.remove(request.tid);
+                graph.removeEdges(request.tid);
+            }
+            request.granted = true;
+            LockSupport.unpark(request.waiter);
+        }
+        refreshEdges(lock);
     }
 
-    private synchronized boolean detectDeadLock(TransactionId tid) {
-        Set<TransactionId> attended = new HashSet<>();
-        Queue<TransactionId> q = new LinkedList<>();
-        q.add(tid);
-        while(!q.isEmpty()) {
-            TransactionId nextNode = q.remove();
-            attended.add(nextNode);
-            if (graph.containsKey(nextNode)) {
-                HashSet<TransactionId> waitingSet = graph.get(nextNode);
-                for (TransactionId waitTid : waitingSet) {
-                    if (!attended.contains(waitTid)) {
-                        q.add(waitTid);
-                    } else {
-                        return true;
-                    }
+    // recomputes the waits-for edges of every request in the queue, and
+    // breaks any cycle the new edges close
+    // must hold the lock's stripe latch
+    private void refreshEdges(ResourceLock lock) {
+        if (deadlockPolicy != DeadlockPolicy.DETECT) {
+            return;
+        }
+        for (LockRequest request : lock.queue) {
+            if (request.aborted) {
+                continue;
+            }
+            synchronized (graph) {
+                List<TransactionId> cycle = graph.setEdges(request.tid, blockers(lock, request));
+                if (cycle != null && !breakCycle(cycle)) {
+                    abort(request);
                 }
             }
         }
-        return false;
     }
 
-    private synchronized void removeFromGraph(TransactionId tid) {
-        graph.remove(tid);
-        for (TransactionId key : graph.keySet()) {
-            graph.get(key).remove(tid);
+    // takes a request that will not be granted out of the queue
+    // must hold the lock's stripe latch
+    private void abandon(Object key, ResourceLock lock, LockRequest request) {
+        synchronized (graph) {
+            if (waiting.get(request.tid) == request) {
+                waiting.remove(request.tid);
+            }
+            graph.removeEdges(request.tid);
+        }
+        if (lock.queue.remove(request)) {
+            grantWaiters(key, lock);
+        }
+        releaseIfUnused(key, lock);
+    }
+
+    // releaseLockTid release the lock with tid only
+    public void releaseLockTid(TransactionId tid) {
+        HeldLocks held = heldLocks.remove(tid);
+        if (held != null) {
+            for (Object key : held.keys) {
+                release(tid, key);
+            }
+        }
+        synchronized (graph) {
+            graph.removeTransaction(tid);
+            wounded.remove(tid);
+        }
+    }
+
+    // release Lock release the Lock, and need two parameters: tid, and pid
+    public void releaseLock(TransactionId tid, PageId pid) {
+        HeldLocks held = heldLocks.get(tid);
+        if (held != null && held.keys.remove(pid)) {
+            held.pagesPerTable.get(pid.getTableId()).decrementAndGet();
         }
+        release(tid, pid);
+    }
+
+    // drops tid's lock on key without touching heldLocks
+    private void release(TransactionId tid, Object key) {
+        ReentrantLock latch = stripeOf(key);
+        latch.lock();
+        try {
+            ResourceLock lock = locks.get(key);
+            if (lock == null) {
+                return;
+            }
+            if (lock.holders.remove(tid) != null) {
+                grantWaiters(key, lock);
+            }
+            releaseIfUnused(key, lock);
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    // must hold the lock's stripe latch
+    private void releaseIfUnused(Object key, ResourceLock lock) {
+        if (lock.isUnused()) {
+            locks.remove(key);
+        }
+    }
+
+    // returns true if the transaction can read the page: it holds a page
+    // lock, or a table lock that covers the page
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        return holds(tid, new TableKey(pid.getTableId()), LockMode.S) || holds(tid, pid, LockMode.S);
     }
 }
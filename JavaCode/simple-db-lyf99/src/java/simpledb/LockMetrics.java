@@ -0,0 +1,180 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LockMetrics counts what a LockManager does: locks granted, upgrades,
+ * escalations, requests that had to wait and how long they waited, and
+ * requests aborted by deadlock handling or by their timeout. It also
+ * counts, per table, page or tuple lock, how many requests had to queue, so
+ * the locks behind a lock convoy can be found with {@link #hottestLocks}.
+ * At most {@link #MAX_TRACKED_LOCKS} locks are counted at a time: when
+ * that many are, the colder half is dropped to make room for new ones.
+ * <p>
+ * Wait times go into a histogram with power-of-two microsecond buckets:
+ * bucket 0 holds waits under 1us, bucket i holds waits in
+ * [2^(i-1), 2^i) us, and the last bucket holds everything longer; see
+ * WaitHistogram.
+ * <p>
+ * All methods are thread-safe; recording never blocks.
+ */
+public class LockMetrics {
+    public static final int NUM_BUCKETS = WaitHistogram.NUM_BUCKETS;
+    /** The most locks whose queued requests are counted at a time. */
+    public static final int MAX_TRACKED_LOCKS = 1024;
+
+    private final LongAdder grants = new LongAdder();
+    private final LongAdder upgrades = new LongAdder();
+    private final LongAdder escalations = new LongAdder();
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder deadlockAborts = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final WaitHistogram waitHistogram = new WaitHistogram();
+    private final Map<Object, LongAdder> contention = new ConcurrentHashMap<>();
+    private final AtomicBoolean pruning = new AtomicBoolean();
+
+    void recordGrant(boolean upgrade) {
+        grants.increment();
+        if (upgrade) {
+            upgrades.increment();
+        }
+    }
+
+    void recordEscalation() {
+        escalations.increment();
+    }
+
+    void recordQueued(Object key) {
+        LongAdder count = contention.get(key);
+        if (count == null) {
+            if (contention.size() >= MAX_TRACKED_LOCKS) {
+                prune();
+            }
+            count = contention.computeIfAbsent(key, k -> new LongAdder());
+        }
+        count.increment();
+    }
+
+    // keeps the hotter half of the tracked locks and drops the rest. One
+    // thread prunes at a time; the others record without waiting, so the
+    // map may briefly pass the cap by the number of recording threads
+    private void prune() {
+        if (!pruning.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Set<Object> keep = new HashSet<>();
+            for (Map.Entry<Object, Long> e : hottestLocks(MAX_TRACKED_LOCKS / 2)) {
+                keep.add(e.getKey());
+            }
+            contention.keySet().retainAll(keep);
+        } finally {
+            pruning.set(false);
+        }
+    }
+
+    void recordWait(long nanos) {
+        waits.increment();
+        waitNanos.add(nanos);
+        waitHistogram.record(nanos);
+    }
+
+    void recordDeadlockAbort() {
+        deadlockAborts.increment();
+    }
+
+    void recordTimeout() {
+        timeouts.increment();
+    }
+
+    /** Returns the number of locks granted, including upgrades. */
+    public long getGrants() {
+        return grants.sum();
+    }
+
+    /** Returns the number of locks upgraded to a stronger mode. */
+    public long getUpgrades() {
+        return upgrades.sum();
+    }
+
+    /** Returns the number of times page locks were traded for a table lock. */
+    public long getEscalations() {
+        return escalations.sum();
+    }
+
+    /** Returns the number of requests that had to wait, whatever the outcome. */
+    public long getWaits() {
+        return waits.sum();
+    }
+
+    /** Returns the total time requests spent waiting, in nanoseconds. */
+    public long getWaitNanos() {
+        return waitNanos.sum();
+    }
+
+    /** Returns the number of requests aborted to break or prevent a deadlock. */
+    public long getDeadlockAborts() {
+        return deadlockAborts.sum();
+    }
+
+    /** Returns the number of requests aborted because their timeout expired. */
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /** Returns a copy of the wait time histogram; see the class comment. */
+    public long[] getWaitHistogram() {
+        return waitHistogram.counts();
+    }
+
+    /**
+     * Returns an upper bound, in microseconds, on the wait time of the given
+     * fraction of waits, read off the histogram; 0 if nothing has waited.
+     *
+     * @param fraction between 0 and 1, e.g. 0.99 for the 99th percentile
+     */
+    public long getWaitPercentileMicros(double fraction) {
+        return waitHistogram.percentileMicros(fraction);
+    }
+
+    /**
+     * Returns up to n locks with the most requests that had to queue, most
+     * contended first, with their counts. The keys are PageIds, RecordIds,
+     * or table keys that print as "Table(id)".
+     */
+    public List<Map.Entry<Object, Long>> hottestLocks(int n) {
+        List<Map.Entry<Object, Long>> hot = new ArrayList<>();
+        for (Map.Entry<Object, LongAdder> e : contention.entrySet()) {
+            hot.add(new AbstractMap.SimpleImmutableEntry<>(e.getKey(), e.getValue().sum()));
+        }
+        hot.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        return hot.size() > n ? new ArrayList<>(hot.subList(0, n)) : hot;
+    }
+
+    /** Clears every counter. */
+    public void reset() {
+        grants.reset();
+        upgrades.reset();
+        escalations.reset();
+        waits.reset();
+        waitNanos.reset();
+        deadlockAborts.reset();
+        timeouts.reset();
+        waitHistogram.reset();
+        contention.clear();
+    }
+
+    public String toString() {
+        return "grants=" + getGrants() + " upgrades=" + getUpgrades()
+                + " escalations=" + getEscalations()
+                + " waits=" + getWaits() + " waitMillis=" + getWaitNanos() / 1000000
+                + " p50us=" + getWaitPercentileMicros(0.5)
+                + " p99us=" + getWaitPercentileMicros(0.99)
+                + " deadlockAborts=" + getDeadlockAborts() + " timeouts=" + getTimeouts()
+                + " hottest=" + hottestLocks(5);
+    }
+}
@@ -0,0 +1,67 @@
+package simpledb;
+
+/**
+ * The lock modes of multi-granularity locking. A transaction takes an
+ * intention mode (IS or IX) on a table before it takes S or X on a page or
+ * tuple of that table; S, SIX and X on a table cover every page and tuple
+ * in it.
+ */
+public enum LockMode {
+    /** Intention to read parts of the resource. */
+    IS,
+    /** Intention to write parts of the resource. */
+    IX,
+    /** Read the whole resource. */
+    S,
+    /** Read the whole resource and write parts of it. */
+    SIX,
+    /** Read and write the whole resource. */
+    X;
+
+    private static final boolean[][] COMPATIBLE = {
+            //         IS     IX     S      SIX    X
+            /* IS  */ {true,  true,  true,  true,  false},
+            /* IX  */ {true,  true,  false, false, false},
+            /* S   */ {true,  false, true,  false, false},
+            /* SIX */ {true,  false, false, false, false},
+            /* X   */ {false, false, false, false, false},
+    };
+
+    /** Returns true if two transactions may hold this mode and other at once. */
+    public boolean isCompatible(LockMode other) {
+        return COMPATIBLE[ordinal()][other.ordinal()];
+    }
+
+    /** Returns the weakest mode that grants everything this mode and other do. */
+    public LockMode combine(LockMode other) {
+        if (this == other || other == null) {
+            return this;
+        }
+        if (this == X || other == X) {
+            return X;
+        }
+        if (this == IS) {
+            return other;
+        }
+        if (other == IS) {
+            return this;
+        }
+        // the remaining pairs are IX, S and SIX in some combination
+        return SIX;
+    }
+
+    /** Returns true if holding this mode grants everything other grants. */
+    public boolean covers(LockMode other) {
+        return combine(other) == this;
+    }
+
+    /** The mode that reads or writes a whole page or tuple. */
+    public static LockMode of(Permissions perm) {
+        return perm.equals(Permissions.READ_ONLY) ? S : X;
+    }
+
+    /** The intention mode taken on the parent before locking with perm. */
+    public static LockMode intentionOf(Permissions perm) {
+        return perm.equals(Permissions.READ_ONLY) ? IS : IX;
+    }
+}
@@ -2,6 +2,8 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 import java.lang.reflect.*;
 
@@ -51,8 +53,8 @@ import java.lang.reflect.*;
  <li> Each log record ends with a long integer file offset representing
  the position in the log file where the record began.
 
- <li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
- CHECKPOINT
+ <li> There are seven record types: ABORT, COMMIT, UPDATE, DELTA, CLR,
+ BEGIN, and CHECKPOINT
 
  <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -61,14 +63,55 @@ import java.lang.reflect.*;
  accessed with the LogFile.readPageData() and LogFile.writePageData()
  methods.  See LogFile.print() for an example.
 
+ <li>DELTA records are UPDATE records that only carry the bytes that
+ changed since the page's previous record, which is what redo patches
+ them onto: the page id (its class name, then an integer count and the
+ integers of PageId.serialize()), an integer count of byte ranges, and
+ for each range an integer offset and length followed by the before and
+ after bytes.  The first record for a page after a checkpoint is always
+ a full UPDATE, so recovery never has to patch a page that a crash left
+ torn; later ones are DELTA records unless the delta would be no
+ smaller.
+
+ <li>CLR (compensation log record) records describe the undo of an
+ UPDATE or DELTA record by a rollback or by recovery.  They consist of
+ the offset of the record that was undone, then an integer record type
+ and either the restored page (UPDATE, see writePageData) or the bytes
+ the undo changed (DELTA).  They are redone but never undone, and tell
+ recovery how much of a transaction has already been rolled back.
+
  <li> CHECKPOINT records consist of active transactions at the time
  the checkpoint was taken and their first log record on disk.  The format
  of the record is an integer count of the number of transactions, as well
  as a long integer transaction id and a long integer first record offset
- for each active transaction.
+ for each active transaction.  The active transactions are followed by
+ the dirty page table: an integer count of pages, and for each page its
+ id (as in a DELTA record) and the long integer offset of its recLSN,
+ the record recovery has to redo it from.
 
  </ul>
 
+ <p> Records are not written to the file field by field: they are
+ appended to an in-memory log buffer, which goes to the file in one write
+ when it fills, when the log is forced, and before the log is read back.
+ Each record has a log sequence number (LSN), the position of its start
+ in the log.  LSNs only grow: logTruncate moves records to the start of
+ the file, but they keep their LSNs.  flushToLSN(lsn) makes the record at
+ lsn and everything before it durable, and does nothing if a force has
+ already done so.  A page remembers the LSN of its last UPDATE record
+ (Page.getLSN), so the BufferPool writes a page after flushing the log
+ up to that LSN.
+
+ <p> Checkpoints are fuzzy: they do not write any pages, and do not
+ hold up the BufferPool.  A page whose UPDATE record is logged but whose
+ write has not finished (see pagesWritten) goes into the checkpoint's
+ dirty page table instead, with the offset of its last full image, and
+ recovery redoes it from there.  Writes are not forced as they happen: a
+ checkpoint forces the files written since the last one (DbFile.force),
+ pages and checksums alike, before their pages leave the table, so a
+ page recovery does not redo is durable and matches its checksum.  setCheckpointPolicy has checkpoints
+ taken in the background, as the log grows or as time passes.
+
  */
 
 public class LogFile {
@@ -82,16 +125,96 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int DELTA_RECORD = 6;
+    static final int CLR_RECORD = 7;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
-    long currentOffset = -1;//protected by this
+    long currentOffset = -1;//protected by this; includes the log buffer
     //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
+    HashMap<Long,Long> tidToBytesLogged = new HashMap<Long,Long>(); // update records only
+
+    // the LSN of the last full image of each page logged since the last
+    // checkpoint, or still in its dirty page table. protected by this
+    private final Map<PageId, Long> imaged = new HashMap<PageId, Long>();
+
+    // the last image logged for each page in imaged, as redo rebuilds it:
+    // a DELTA is the difference from this, not from the transaction's
+    // before image. protected by this
+    private final Map<PageId, byte[]> logged = new HashMap<PageId, byte[]>();
+
+    // the LSN of the oldest record of each page whose write has not
+    // finished, or has not been forced to disk. protected by this
+    private final Map<PageId, Long> unwritten = new HashMap<PageId, Long>();
+
+    // the pages of unwritten written since, and not logged again, each
+    // with a number telling its writes apart. protected by this
+    private final Map<PageId, Long> unsynced = new HashMap<PageId, Long>();
+    private long writes = 0;
+
+    // ranges of equal bytes shorter than this are kept inside a DELTA
+    // range, since each range costs two ints of its own
+    private static final int RANGE_GAP = 2 * INT_SIZE;
+
+    /** By default a batch of commits is written as soon as the flusher is free. */
+    public static final long DEFAULT_COMMIT_DELAY_MICROS = 0;
+    /** By default at most this many commits share a force. */
+    public static final int DEFAULT_COMMIT_BATCH = 64;
+
+    private long commitDelayMicros = DEFAULT_COMMIT_DELAY_MICROS;
+    private int commitBatchSize = DEFAULT_COMMIT_BATCH;
+    private final GroupCommit groupCommit =
+            new GroupCommit(this, DEFAULT_COMMIT_DELAY_MICROS, DEFAULT_COMMIT_BATCH);
+
+    // take a checkpoint once this many bytes have been logged since the
+    // last one; 0 for never. protected by this
+    private long checkpointLogBytes = 0;
+    private long checkpointIntervalMillis = 0;
+    private final Checkpointer checkpointer = new Checkpointer(this);
+    // the LSN of the last checkpoint record. protected by this
+    private long checkpointLSN = 0;
+
+    /** The size of the in-memory log buffer. */
+    static final int LOG_BUFFER_SIZE = 1 << 20;
+
+    // records not yet written to the file; they start at file offset
+    // bufferStart, the end of the file. protected by this
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(LOG_BUFFER_SIZE);
+    private long bufferStart = -1;
+    // writes records to the buffer, writing the buffer out when it fills
+    private final DataOutputStream out = new DataOutputStream(new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            if (!buffer.hasRemaining()) {
+                writeBuffer();
+            }
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (!buffer.hasRemaining()) {
+                    writeBuffer();
+                }
+                int n = Math.min(len, buffer.remaining());
+                buffer.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+    });
+
+    // the LSN of file offset 0; grows as logTruncate drops the head of the
+    // log. protected by this
+    private long lsnBase = 0;
+    // every record before this LSN is on disk; the file header always is
+    private volatile long durableLSN = LONG_SIZE;
 
     /** Constructor.
      Initialize and back the log file with the specified file.
@@ -131,14 +254,58 @@ public class LogFile {
             raf.setLength(0);
             raf.writeLong(NO_CHECKPOINT_ID);
             raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            resetBuffer(raf.getFilePointer());
+        }
+    }
+
+    // empties the log buffer; the log continues at the specified offset
+    // of the file
+    private void resetBuffer(long offset) {
+        buffer.clear();
+        bufferStart = offset;
+        currentOffset = offset;
+    }
+
+    // writes the log buffer to the end of the file, without forcing it
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        FileChannel c = raf.getChannel();
+        while (buffer.hasRemaining()) {
+            bufferStart += c.write(buffer, bufferStart);
+        }
+        buffer.clear();
+    }
+
+    // notes that the record just added to the buffer, which started at
+    // offset start, is in the log; returns its LSN
+    private long appended(long start) throws IOException {
+        out.flush();
+        currentOffset = bufferStart + buffer.position();
+        if (checkpointLogBytes > 0 && lsnBase + currentOffset - checkpointLSN >= checkpointLogBytes) {
+            checkpointer.request();
         }
+        return lsnBase + start;
+    }
+
+    /** Return the LSN the next log record will get; every record
+     appended so far has a smaller one. */
+    public synchronized long getEndLSN() {
+        return lsnBase + currentOffset;
     }
 
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
 
+    /** Return the number of bytes of update records the specified
+     transaction has written to the log so far.
+     @param tid The transaction
+     */
+    public synchronized long getBytesLogged(TransactionId tid) {
+        Long bytes = tidToBytesLogged.get(tid.getId());
+        return bytes == null ? 0 : bytes;
+    }
+
     /** Write an abort record to the log for the specified tid, force
      the log to disk, and perform a rollback
      @param tid The aborting transaction.
@@ -158,46 +325,122 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                long start = currentOffset;
+                out.writeInt(ABORT_RECORD);
+                out.writeLong(tid.getId());
+                out.writeLong(start);
+                appended(start);
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
+                tidToBytesLogged.remove(tid.getId());
             }
         }
     }
 
     /** Write a commit record to disk for the specified tid,
-     and force the log to disk.
+     and force the log to disk.  Concurrent commits are written and
+     forced together; see setGroupCommit.
 
      @param tid The committing transaction.
      */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
+    public void logCommit(TransactionId tid) throws IOException {
+        groupCommit.commit(tid);
+    }
+
+    /** Write commit records for the specified transactions with a single
+     write, and force the log to disk.  Called by the group commit
+     flusher.
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+     @param tids The committing transactions, in commit order.
+     */
+    synchronized void logCommits(List<TransactionId> tids) throws IOException {
+        for (TransactionId tid : tids) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            long start = currentOffset;
+            out.writeInt(COMMIT_RECORD);
+            out.writeLong(tid.getId());
+            out.writeLong(start);
+            appended(start);
+        }
         force();
-        tidToFirstLogRecord.remove(tid.getId());
+        for (TransactionId tid : tids) {
+            tidToFirstLogRecord.remove(tid.getId());
+            tidToBytesLogged.remove(tid.getId());
+        }
     }
 
-    /** Write an UPDATE record to disk for the specified tid and page
-     (with provided         before and after images.)
+    /** Configure group commit.  The flusher waits up to maxDelayMicros
+     for more commits to join a batch before it writes and forces it,
+     and puts at most maxBatchSize commits in a batch.  A longer delay
+     means fewer forces under load but slower commits when the system
+     is quiet; a batch size of 1 forces the log once per commit.
+
+     @param maxDelayMicros The longest a batch waits to fill, at least 0
+     @param maxBatchSize The most commits per batch, at least 1
+     @throws IllegalArgumentException if either is out of range
+     */
+    public synchronized void setGroupCommit(long maxDelayMicros, int maxBatchSize) {
+        if (maxDelayMicros < 0 || maxBatchSize < 1) {
+            throw new IllegalArgumentException("bad group commit delay " + maxDelayMicros
+                    + " or batch size " + maxBatchSize);
+        }
+        commitDelayMicros = maxDelayMicros;
+        commitBatchSize = maxBatchSize;
+        groupCommit.configure(maxDelayMicros, maxBatchSize);
+    }
+
+    /** @return the longest a batch of commits waits to fill, in microseconds */
+    public synchronized long getCommitDelayMicros() {
+        return commitDelayMicros;
+    }
+
+    /** @return the most commits that share a force of the log */
+    public synchronized int getCommitBatchSize() {
+        return commitBatchSize;
+    }
+
+    /** Returns an upper bound, in microseconds, on the time the given
+     fraction of logCommit calls took, from queueing the COMMIT record to
+     returning with it on disk; 0 if nothing has committed.  The times go
+     into a histogram with power-of-two microsecond buckets, as in
+     LockMetrics.
+
+     @param fraction between 0 and 1, e.g. 0.99 for the 99th percentile
+     */
+    public long getCommitLatencyPercentileMicros(double fraction) {
+        return groupCommit.latency().percentileMicros(fraction);
+    }
+
+    /** @return a copy of the commit latency histogram, one count per
+     power-of-two microsecond bucket; see LockMetrics#getWaitHistogram */
+    public long[] getCommitLatencyHistogram() {
+        return groupCommit.latency().counts();
+    }
+
+    /** Clears the commit latency histogram. */
+    public void resetCommitLatency() {
+        groupCommit.latency().reset();
+    }
+
+    /** Write an UPDATE record to the log for the specified tid and page
+     (with provided         before and after images.)  The record is
+     only sure to be on disk once the log has been flushed up to its LSN,
+     which is also recorded in the after image.
      @param tid The transaction performing the write
      @param before The before image of the page
      @param after The after image of the page
+     @return The LSN of the record
 
      @see simpledb.Page#getBeforeImage
+     @see #flushToLSN
      */
-    public  synchronized void logWrite(TransactionId tid, Page before,
+    public  synchronized long logWrite(TransactionId tid, Page before,
                                        Page after)
             throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = " + currentOffset);
         preAppend();
         /* update record conists of
 
@@ -206,19 +449,40 @@ public class LogFile {
            before page data (see writePageData)
            after page data
            start offset
-        */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
 
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+           or, for a DELTA record, the changed bytes (see Delta.write)
+           in place of the page data
+        */
+        long start = currentOffset;
+        PageId pid = after.getId();
+        byte[] base = logged.get(pid);
+        Delta delta = base != null ? Delta.of(pid, base, after.getPageData()) : null;
+        if (delta != null) {
+            out.writeInt(DELTA_RECORD);
+            out.writeLong(tid.getId());
+            delta.write(out);
+        } else {
+            out.writeInt(UPDATE_RECORD);
+            out.writeLong(tid.getId());
+
+            writePageData(out,before);
+            writePageData(out,after);
+            imaged.put(pid, lsnBase + start);
+        }
+        out.writeLong(start);
+        long lsn = appended(start);
+        logged.put(pid, after.getPageData().clone());
+        after.setLSN(lsn);
+        unwritten.putIfAbsent(pid, lsn);
+        unsynced.remove(pid);
+        Long logged = tidToBytesLogged.get(tid.getId());
+        tidToBytesLogged.put(tid.getId(), (logged == null ? 0 : logged) + currentOffset - start);
 
         Debug.log("WRITE OFFSET = " + currentOffset);
+        return lsn;
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
+    void writePageData(DataOutput dout, Page p) throws IOException{
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
 
@@ -233,51 +497,49 @@ public class LogFile {
         String pageClassName = p.getClass().getName();
         String idClassName = pid.getClass().getName();
 
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+        dout.writeUTF(pageClassName);
+        dout.writeUTF(idClassName);
 
-        raf.writeInt(pageInfo.length);
+        dout.writeInt(pageInfo.length);
         for (int i = 0; i < pageInfo.length; i++) {
-            raf.writeInt(pageInfo[i]);
+            dout.writeInt(pageInfo[i]);
         }
         byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
+        dout.writeInt(pageData.length);
+        dout.write(pageData);
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
     Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
-
         String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
+        PageId pid = readPageId(raf);
+        int pageSize = raf.readInt();
+
+        byte[] pageData = new byte[pageSize];
+        raf.readFully(pageData); //read before image
+        try {
+            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + pid.getTableId() + ", page = " + pid.pageno());
+            return newPage(Class.forName(pageClassName), pid, pageData);
+        } catch (ClassNotFoundException e){
+            e.printStackTrace();
+            throw new IOException();
+        }
+    }
 
+    // reads a page id: its class name, then the ints of its serialize()
+    static PageId readPageId(DataInput raf) throws IOException {
+        String idClassName = raf.readUTF();
         try {
             Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
 
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
             int numIdArgs = raf.readInt();
             Object idArgs[] = new Object[numIdArgs];
+            Class<?> idArgTypes[] = new Class<?>[numIdArgs];
             for (int i = 0; i<numIdArgs;i++) {
                 idArgs[i] = new Integer(raf.readInt());
+                idArgTypes[i] = int.class;
             }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
-
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
-
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
-
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
-
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
-
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
+            return (PageId)idClass.getDeclaredConstructor(idArgTypes).newInstance(idArgs);
         } catch (ClassNotFoundException e){
             e.printStackTrace();
             throw new IOException();
@@ -290,9 +552,178 @@ public class LogFile {
         } catch (InvocationTargetException e) {
             e.printStackTrace();
             throw new IOException();
+        } catch (NoSuchMethodException e) {
+            e.printStackTrace();
+            throw new IOException();
+        }
+    }
+
+    static void writePageId(DataOutput dout, PageId pid) throws IOException {
+        int pageInfo[] = pid.serialize();
+        dout.writeUTF(pid.getClass().getName());
+        dout.writeInt(pageInfo.length);
+        for (int i = 0; i < pageInfo.length; i++) {
+            dout.writeInt(pageInfo[i]);
+        }
+    }
+
+    // a page of the specified class with the specified id and bytes
+    static Page newPage(Class<?> pageClass, PageId pid, byte[] pageData) throws IOException {
+        // pages may have several constructors; the one taking the id
+        // and a byte array is the inverse of getPageData
+        try {
+            for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[0].isInstance(pid) && params[1] == byte[].class) {
+                    return (Page)c.newInstance(pid, pageData);
+                }
+            }
+        } catch (InstantiationException e) {
+            e.printStackTrace();
+            throw new IOException();
+        } catch (IllegalAccessException e) {
+            e.printStackTrace();
+            throw new IOException();
+        } catch (InvocationTargetException e) {
+            e.printStackTrace();
+            throw new IOException();
+        }
+        new NoSuchMethodException(pageClass.getName() + "(" + pid.getClass().getName() + ", byte[])").printStackTrace();
+        throw new IOException();
+    }
+
+    /** The changed bytes of a page, as logged in a DELTA record. */
+    static class Delta {
+        final PageId pid;
+        final int[] offsets;
+        final byte[][] before;
+        final byte[][] after;
+
+        Delta(PageId pid, int[] offsets, byte[][] before, byte[][] after) {
+            this.pid = pid;
+            this.offsets = offsets;
+            this.before = before;
+            this.after = after;
         }
-        return newPage;
 
+        /**
+         * Returns the bytes in which two images of a page differ, or null
+         * if they are not the same size or a delta would be no smaller
+         * than a full image.
+         */
+        static Delta of(PageId pid, byte[] before, byte[] after) {
+            int n = before.length;
+            if (after.length != n) {
+                return null;
+            }
+            List<int[]> ranges = new ArrayList<int[]>();
+            int size = 0;
+            int i = 0;
+            int m;
+            while (i < n && (m = Arrays.mismatch(before, i, n, after, i, n)) >= 0) {
+                int start = i + m;
+                int end = start + 1;
+                while (end < n) {
+                    int to = Math.min(n, end + RANGE_GAP);
+                    int gap = Arrays.mismatch(before, end, to, after, end, to);
+                    if (gap < 0) {
+                        break;
+                    }
+                    end += gap + 1;
+                }
+                ranges.add(new int[] { start, end });
+                size += 2 * INT_SIZE + 2 * (end - start);
+                if (size >= n) {
+                    return null;
+                }
+                i = end;
+            }
+            int[] offsets = new int[ranges.size()];
+            byte[][] b = new byte[ranges.size()][];
+            byte[][] a = new byte[ranges.size()][];
+            for (int r = 0; r < offsets.length; r++) {
+                int[] range = ranges.get(r);
+                offsets[r] = range[0];
+                b[r] = Arrays.copyOfRange(before, range[0], range[1]);
+                a[r] = Arrays.copyOfRange(after, range[0], range[1]);
+            }
+            return new Delta(pid, offsets, b, a);
+        }
+
+        static Delta read(DataInput in) throws IOException {
+            PageId pid = readPageId(in);
+            int count = in.readInt();
+            int[] offsets = new int[count];
+            byte[][] before = new byte[count][];
+            byte[][] after = new byte[count][];
+            for (int r = 0; r < count; r++) {
+                offsets[r] = in.readInt();
+                before[r] = new byte[in.readInt()];
+                after[r] = new byte[before[r].length];
+                in.readFully(before[r]);
+                in.readFully(after[r]);
+            }
+            return new Delta(pid, offsets, before, after);
+        }
+
+        void write(DataOutput out) throws IOException {
+            writePageId(out, this.pid);
+            out.writeInt(this.offsets.length);
+            for (int r = 0; r < this.offsets.length; r++) {
+                out.writeInt(this.offsets[r]);
+                out.writeInt(this.before[r].length);
+                out.write(this.before[r]);
+                out.write(this.after[r]);
+            }
+        }
+
+        /** Copies the before (undo) or after bytes into the page bytes. */
+        void apply(byte[] data, boolean undo) {
+            byte[][] bytes = undo ? this.before : this.after;
+            for (int r = 0; r < this.offsets.length; r++) {
+                System.arraycopy(bytes[r], 0, data, this.offsets[r], bytes[r].length);
+            }
+        }
+    }
+
+    // reads the page image an UPDATE (its after image), DELTA or CLR
+    // record installs: a Page for a full image, or a Delta
+    private Object readRedo(RandomAccessFile raf, int type) throws IOException {
+        switch (type) {
+            case UPDATE_RECORD:
+                readPageData(raf); // the before image
+                return readPageData(raf);
+            case DELTA_RECORD:
+                return Delta.read(raf);
+            default:
+                raf.readLong(); // the record that was undone
+                return raf.readInt() == DELTA_RECORD ? Delta.read(raf) : readPageData(raf);
+        }
+    }
+
+    private static PageId idOf(Object image) {
+        return image instanceof Delta ? ((Delta)image).pid : ((Page)image).getId();
+    }
+
+    // the page a record's image turns the current state of its page
+    // into; the current state is taken from pages, or else from disk
+    private static Page apply(Object image, Map<PageId, Page> pages) throws IOException {
+        if (image instanceof Page) {
+            return (Page)image;
+        }
+        Delta d = (Delta)image;
+        Page page = current(d.pid, pages);
+        byte[] data = page.getPageData().clone();
+        d.apply(data, false);
+        return newPage(page.getClass(), d.pid, data);
+    }
+
+    private static Page current(PageId pid, Map<PageId, Page> pages) throws IOException {
+        Page page = pages.get(pid);
+        if (page == null) {
+            page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        }
+        return page;
     }
 
     /** Write a BEGIN record for the specified transaction
@@ -307,60 +738,178 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        long start = currentOffset;
+        out.writeInt(BEGIN_RECORD);
+        out.writeLong(tid.getId());
+        out.writeLong(start);
+        tidToFirstLogRecord.put(tid.getId(), start);
+        appended(start);
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Checkpoint the log and write a checkpoint record.  The checkpoint
+     is fuzzy: it writes no pages, but records the active transactions and
+     the dirty page table, so it only holds the log while it writes its
+     record.  It first forces the files of the pages written since the last
+     checkpoint, without holding the log, so that they can leave the dirty
+     page table.  The log is truncated once at least half of it is no
+     longer needed, so that truncation, which copies what it keeps, costs
+     no more than the log it drops.
+     */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+        checkpoint(false);
+    }
+
+    // a checkpoint the Checkpointer asked for. Until the log has been
+    // recovered or appended to, a checkpoint would throw it away; after
+    // shutdown there is no log left
+    void scheduledCheckpoint() throws IOException {
+        checkpoint(true);
+    }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+    private void checkpoint(boolean scheduled) throws IOException {
+        syncWritten();
+        synchronized (this) {
+            if (scheduled && (recoveryUndecided || currentOffset < 0 || checkpointer.isStopped())) {
+                return;
+            }
+            //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
+            preAppend();
+            long startCpOffset;
+            Set<Long> keys = tidToFirstLogRecord.keySet();
+            Iterator<Long> els = keys.iterator();
+            startCpOffset = currentOffset;
+            out.writeInt(CHECKPOINT_RECORD);
+            out.writeLong(-1); //no tid , but leave space for convenience
+
+            //write list of outstanding transactions
+            out.writeInt(keys.size());
+            while (els.hasNext()) {
+                Long key = els.next();
+                Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
+                out.writeLong(key);
+                //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
+                out.writeLong(tidToFirstLogRecord.get(key));
+            }
+
+            //write the dirty page table: redo a page whose write has not
+            // finished from its last full image, which is at or before
+            // the first record the write is missing
+            out.writeInt(unwritten.size());
+            for (PageId pid : unwritten.keySet()) {
+                writePageId(out, pid);
+                out.writeLong(imaged.get(pid) - lsnBase);
+            }
+            out.writeLong(startCpOffset);
+            checkpointLSN = lsnBase + startCpOffset;
+            appended(startCpOffset);
+            // recovery starts here, so the next record for every page
+            // outside the dirty page table has to carry a full image again
+            imaged.keySet().retainAll(unwritten.keySet());
+            logged.keySet().retainAll(unwritten.keySet());
+
+            //once the CP is on disk, make sure the CP location at the
+            // beginning of the log file is updated
+            force();
+            raf.seek(0);
+            raf.writeLong(startCpOffset);
+            //Debug.log("CP OFFSET = " + currentOffset);
+
+            long keep = truncationPoint();
+            if (keep - LONG_SIZE >= raf.length() - keep) {
+                logTruncate();
             }
         }
+    }
 
-        logTruncate();
+    /** Have checkpoints taken in the background, once logBytes bytes have
+     been logged since the last checkpoint and every intervalMillis
+     milliseconds.  0 turns either off; both are off by default, leaving
+     checkpoints to logCheckpoint and shutdown.
+
+     @throws IllegalArgumentException if either is negative
+     */
+    public synchronized void setCheckpointPolicy(long logBytes, long intervalMillis) {
+        if (logBytes < 0 || intervalMillis < 0) {
+            throw new IllegalArgumentException("bad checkpoint log size " + logBytes
+                    + " or interval " + intervalMillis);
+        }
+        checkpointLogBytes = logBytes;
+        checkpointIntervalMillis = intervalMillis;
+        checkpointer.configure(intervalMillis);
     }
 
-    /** Truncate any unneeded portion of the log to reduce its space
-     consumption */
-    public synchronized void logTruncate() throws IOException {
-        preAppend();
+    /** @return the bytes logged between background checkpoints, or 0 */
+    public synchronized long getCheckpointLogBytes() {
+        return checkpointLogBytes;
+    }
+
+    /** @return the milliseconds between background checkpoints, or 0 */
+    public synchronized long getCheckpointIntervalMillis() {
+        return checkpointIntervalMillis;
+    }
+
+    // stops background checkpoints for good; Database.reset calls this
+    // on the log it drops
+    void stopCheckpoints() {
+        checkpointer.stop();
+    }
+
+    /** Note that the specified pages are on disk, up to their last UPDATE
+     record, so that they leave the dirty page table.  The BufferPool
+     calls this after writing pages.
+     */
+    synchronized void pagesWritten(Collection<Page> pages) {
+        for (Page p : pages) {
+            written(p.getId());
+        }
+    }
+
+    // notes that pid has been written; it leaves the dirty page table at
+    // the next checkpoint, once its file has been forced
+    private void written(PageId pid) {
+        if (unwritten.containsKey(pid)) {
+            unsynced.put(pid, ++writes);
+        }
+    }
+
+    // forces the files of the pages written since the last call, data and
+    // checksums together, and drops those pages from the dirty page table
+    // unless they have been logged again. The forcing holds no lock
+    private void syncWritten() throws IOException {
+        Map<PageId, Long> written;
+        synchronized (this) {
+            if (unsynced.isEmpty()) {
+                return;
+            }
+            written = new HashMap<PageId, Long>(unsynced);
+        }
+        Set<Integer> tables = new HashSet<Integer>();
+        for (PageId pid : written.keySet()) {
+            tables.add(pid.getTableId());
+        }
+        for (int tableId : tables) {
+            try {
+                Database.getCatalog().getDatabaseFile(tableId).force();
+            } catch (NoSuchElementException e) {
+                // the table is gone, and its pages no longer matter
+            }
+        }
+        synchronized (this) {
+            for (Map.Entry<PageId, Long> e : written.entrySet()) {
+                if (unsynced.remove(e.getKey(), e.getValue())) {
+                    unwritten.remove(e.getKey());
+                }
+            }
+        }
+    }
+
+    // the offset of the oldest record recovery needs: the first record
+    // of each transaction active at the last checkpoint, and the recLSN
+    // of each page in its dirty page table
+    private long truncationPoint() throws IOException {
+        writeBuffer();
         raf.seek(0);
         long cpLoc = raf.readLong();
 
@@ -386,8 +935,29 @@ public class LogFile {
                     minLogRecord = firstLogRecord;
                 }
             }
+
+            // redo of the dirty pages starts at their recLSNs
+            int numDirty = raf.readInt();
+            for (int i = 0; i < numDirty; i++) {
+                readPageId(raf);
+                long recLSN = raf.readLong();
+                if (recLSN < minLogRecord) {
+                    minLogRecord = recLSN;
+                }
+            }
         }
 
+        return minLogRecord;
+    }
+
+    /** Truncate any unneeded portion of the log to reduce its space
+     consumption */
+    public synchronized void logTruncate() throws IOException {
+        preAppend();
+        long minLogRecord = truncationPoint();
+        raf.seek(0);
+        long cpLoc = raf.readLong();
+
         // we can truncate everything before minLogRecord
         File newFile = new File("logtmp" + System.currentTimeMillis());
         RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
@@ -416,6 +986,20 @@ public class LogFile {
                         writePageData(logNew, before);
                         writePageData(logNew, after);
                         break;
+                    case DELTA_RECORD:
+                        Delta.read(raf).write(logNew);
+                        break;
+                    case CLR_RECORD:
+                        long undone = raf.readLong();
+                        logNew.writeLong((undone - minLogRecord) + LONG_SIZE);
+                        int kind = raf.readInt();
+                        logNew.writeInt(kind);
+                        if (kind == DELTA_RECORD) {
+                            Delta.read(raf).write(logNew);
+                        } else {
+                            writePageData(logNew, readPageData(raf));
+                        }
+                        break;
                     case CHECKPOINT_RECORD:
                         int numXactions = raf.readInt();
                         logNew.writeInt(numXactions);
@@ -425,9 +1009,17 @@ public class LogFile {
                             logNew.writeLong(xid);
                             logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
                         }
+                        int numDirty = raf.readInt();
+                        logNew.writeInt(numDirty);
+                        while (numDirty-- > 0) {
+                            writePageId(logNew, readPageId(raf));
+                            logNew.writeLong((raf.readLong() - minLogRecord) + LONG_SIZE);
+                        }
                         break;
                     case BEGIN_RECORD:
-                        tidToFirstLogRecord.put(record_tid,newStart);
+                        // only a transaction still running moves; one that
+                        // has finished must not come back as active
+                        tidToFirstLogRecord.replace(record_tid, newStart);
                         break;
                 }
 
@@ -442,6 +1034,9 @@ public class LogFile {
 
         Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
 
+        // the records that are left keep their LSNs
+        logNew.getChannel().force(true);
+        logNew.close();
         raf.close();
         logFile.delete();
         newFile.renameTo(logFile);
@@ -449,7 +1044,9 @@ public class LogFile {
         raf.seek(raf.length());
         newFile.delete();
 
-        currentOffset = raf.getFilePointer();
+        lsnBase += minLogRecord - LONG_SIZE;
+        resetBuffer(raf.getFilePointer());
+        durableLSN = lsnBase + currentOffset;
         //print();
     }
 
@@ -479,6 +1076,7 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 preAppend();
+                writeBuffer();
                 // new codes
                 Long recordId = tidToFirstLogRecord.get(longTid);
                 if (recordId != null) {
@@ -487,45 +1085,117 @@ public class LogFile {
                     if (currentOffset == -1) {
                         end = raf.length();
                     }
-                    Set<PageId> finished = new HashSet<>();
-                    raf.seek(recordId);
-
-                    while (raf.getFilePointer() < end) {
-                        int type = raf.readInt();
-                        long curtid = raf.readLong();
-                        switch (type) {
-                            case UPDATE_RECORD:
-                                Page before = readPageData(raf);
-                                Page after = readPageData(raf);
-                                if (curtid == longTid) {
-                                    PageId pid = before.getId();
-                                    if (!finished.contains(pid)) {
-                                        finished.add(pid);
-                                        DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-                                        dbFile.writePage(before);
-                                        Database.getBufferPool().discardPage(pid);
-                                    }
-                                }
-                                break;
-                            case CHECKPOINT_RECORD:
-                                for (int i = 0; i < raf.readInt(); i++) {
-                                    raf.seek(raf.getFilePointer() + 2 * LONG_SIZE);
-                                }
-                                break;
-                        }
-                        raf.seek(raf.getFilePointer() + LONG_SIZE);
-                    }
+                    Map<PageId, Page> pages = new LinkedHashMap<PageId, Page>();
+                    undo(Collections.singleton(longTid), recordId, end, pages);
+                    install(pages);
                     raf.seek(initialPointer);
                 }
             }
         }
     }
 
+    // the undo pass: walks the log backwards from end to from, using the
+    // offset that ends every record, and undoes the UPDATE and DELTA
+    // records of the losers newest first.  Each undo is logged as a CLR,
+    // and a loser's CLRs say how far back it was already rolled back, so
+    // a rollback that a crash interrupted is finished rather than
+    // repeated.  pages holds the current state of the pages being undone;
+    // the caller installs them once the CLRs are durable.
+    private void undo(Set<Long> losers, long from, long end, Map<PageId, Page> pages)
+            throws IOException {
+        // a loser's records at or after this offset have been undone
+        Map<Long, Long> undoNext = new HashMap<Long, Long>();
+        long offset = end;
+        while (offset > from) {
+            raf.seek(offset - LONG_SIZE);
+            long start = raf.readLong();
+            raf.seek(start);
+            int type = raf.readInt();
+            long tid = raf.readLong();
+            offset = start;
+            if (!losers.contains(tid)) {
+                continue;
+            }
+            Long next = undoNext.get(tid);
+            if (type == CLR_RECORD) {
+                long undone = raf.readLong();
+                if (next == null || undone < next) {
+                    undoNext.put(tid, undone);
+                }
+                continue;
+            }
+            if (next != null && start >= next) {
+                continue;
+            }
+            switch (type) {
+                case UPDATE_RECORD:
+                    Page before = readPageData(raf);
+                    logClr(tid, start, before);
+                    pages.put(before.getId(), before);
+                    break;
+                case DELTA_RECORD:
+                    Delta delta = Delta.read(raf);
+                    Page page = current(delta.pid, pages);
+                    byte[] data = page.getPageData().clone();
+                    delta.apply(data, true);
+                    Page restored = newPage(page.getClass(), delta.pid, data);
+                    logClr(tid, start, restored);
+                    pages.put(delta.pid, restored);
+                    break;
+            }
+        }
+    }
+
+    // appends a CLR for the undo of tid's record at offset undone, which
+    // restored the page
+    private void logClr(long tid, long undone, Page restored) throws IOException {
+        preAppend();
+        long start = currentOffset;
+        PageId pid = restored.getId();
+        byte[] base = logged.get(pid);
+        Delta delta = base != null ? Delta.of(pid, base, restored.getPageData()) : null;
+        out.writeInt(CLR_RECORD);
+        out.writeLong(tid);
+        out.writeLong(undone);
+        if (delta != null) {
+            out.writeInt(DELTA_RECORD);
+            delta.write(out);
+        } else {
+            out.writeInt(UPDATE_RECORD);
+            writePageData(out, restored);
+            imaged.put(pid, lsnBase + start);
+        }
+        out.writeLong(start);
+        unwritten.putIfAbsent(pid, appended(start));
+        unsynced.remove(pid);
+        logged.put(pid, restored.getPageData().clone());
+    }
+
+    // forces the log, so that the records pages were rebuilt from are
+    // durable, then writes the pages and drops the BufferPool's copies
+    private void install(Map<PageId, Page> pages) throws IOException {
+        force();
+        Map<Integer, List<Page>> byTable = new LinkedHashMap<Integer, List<Page>>();
+        for (Page p : pages.values()) {
+            byTable.computeIfAbsent(p.getId().getTableId(), k -> new ArrayList<Page>()).add(p);
+        }
+        for (Map.Entry<Integer, List<Page>> e : byTable.entrySet()) {
+            Database.getCatalog().getDatabaseFile(e.getKey()).writePages(e.getValue());
+        }
+        for (PageId pid : pages.keySet()) {
+            Database.getBufferPool().discardPage(pid);
+        }
+        for (PageId pid : pages.keySet()) {
+            written(pid);
+        }
+    }
+
     /** Shutdown the logging system, writing out whatever state
      is necessary so that start up can happen quickly (without
      extensive recovery.)
      */
     public synchronized void shutdown() {
+        stopCheckpoints();
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
             raf.close();
@@ -543,65 +1213,167 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
+                writeBuffer();
                 // some code goes here
-                Set<Long> uncommitted = new HashSet<>();
-                raf.seek(0);
-                long lastCheckpoint = raf.readLong();
-                if (lastCheckpoint > 0) {
-                    raf.seek(lastCheckpoint);
-                    raf.seek(raf.getFilePointer() + INT_SIZE + LONG_SIZE);
-                    int activeCount = raf.readInt();
-                    for (int i = 0; i < activeCount; i++) {
-                        long tid = raf.readLong();
-                        long recordId = raf.readLong();
-                        uncommitted.add(tid);
-                        tidToFirstLogRecord.put(tid, recordId);
-                    }
-                    raf.seek(raf.getFilePointer() + LONG_SIZE);
+                Map<PageId, Long> dirtyPages = new HashMap<PageId, Long>();
+                Set<Long> losers = analyze(dirtyPages);
+
+                Map<PageId, Page> pages = new LinkedHashMap<PageId, Page>();
+                if (!dirtyPages.isEmpty()) {
+                    redo(Collections.min(dirtyPages.values()), dirtyPages, pages);
                 }
-                while (raf.getFilePointer() < raf.length()) {
-                    long start = raf.getFilePointer();
-                    int type = raf.readInt();
-                    long tid = raf.readLong();
-
-                    switch(type) {
-                        case UPDATE_RECORD:
-                            Page before = readPageData(raf);
-                            Page after = readPageData(raf);
-                            PageId pid = after.getId();
-                            DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-                            dbFile.writePage(after);
-                            Database.getBufferPool().discardPage(pid);
-                            break;
-                        case COMMIT_RECORD:
-                            uncommitted.remove(tid);
-                            break;
-                        case BEGIN_RECORD:
-                            uncommitted.add(tid);
-                            tidToFirstLogRecord.put(tid, start);
-                            break;
-                        case ABORT_RECORD:
-                            rollback_helper(tid);
-                            uncommitted.remove(tid);
-                            break;
+
+                resetBuffer(raf.length());
+                if (!losers.isEmpty()) {
+                    long from = Long.MAX_VALUE;
+                    for (Long tid : losers) {
+                        from = Math.min(from, tidToFirstLogRecord.get(tid));
+                    }
+                    undo(losers, from, raf.length(), pages);
+                    for (Long tid : losers) {
+                        preAppend();
+                        long start = currentOffset;
+                        out.writeInt(ABORT_RECORD);
+                        out.writeLong(tid);
+                        out.writeLong(start);
+                        appended(start);
+                        tidToFirstLogRecord.remove(tid);
+                        tidToBytesLogged.remove(tid);
                     }
-                    raf.seek(raf.getFilePointer() + LONG_SIZE);
-                }
-                for (Long longTid : uncommitted) {
-                    rollback_helper(longTid);
                 }
-                currentOffset = raf.getFilePointer();
+                install(pages);
             }
         }
     }
 
+    // the analysis pass: reads forward from the last checkpoint, rebuilding
+    // the transaction table (tidToFirstLogRecord) and the dirty page table,
+    // which starts as the checkpoint's and maps each other page with a
+    // record since the checkpoint to the offset of the first one (its
+    // recLSN).  Returns the transactions that neither committed nor
+    // aborted.
+    private Set<Long> analyze(Map<PageId, Long> dirtyPages) throws IOException {
+        Set<Long> losers = new HashSet<Long>();
+        raf.seek(0);
+        long lastCheckpoint = raf.readLong();
+        if (lastCheckpoint > 0) {
+            raf.seek(lastCheckpoint);
+            raf.seek(raf.getFilePointer() + INT_SIZE + LONG_SIZE);
+            int activeCount = raf.readInt();
+            for (int i = 0; i < activeCount; i++) {
+                long tid = raf.readLong();
+                long recordId = raf.readLong();
+                losers.add(tid);
+                tidToFirstLogRecord.put(tid, recordId);
+            }
+            int dirtyCount = raf.readInt();
+            for (int i = 0; i < dirtyCount; i++) {
+                PageId pid = readPageId(raf);
+                dirtyPages.put(pid, raf.readLong());
+            }
+            raf.seek(raf.getFilePointer() + LONG_SIZE);
+        }
+        while (raf.getFilePointer() < raf.length()) {
+            long start = raf.getFilePointer();
+            int type = raf.readInt();
+            long tid = raf.readLong();
+
+            switch (type) {
+                case UPDATE_RECORD:
+                case DELTA_RECORD:
+                case CLR_RECORD:
+                    dirtyPages.putIfAbsent(idOf(readRedo(raf, type)), start);
+                    break;
+                case COMMIT_RECORD:
+                case ABORT_RECORD:
+                    losers.remove(tid);
+                    tidToFirstLogRecord.remove(tid);
+                    break;
+                case BEGIN_RECORD:
+                    losers.add(tid);
+                    tidToFirstLogRecord.put(tid, start);
+                    break;
+                case CHECKPOINT_RECORD:
+                    skipCheckpoint(raf);
+                    break;
+            }
+            raf.seek(raf.getFilePointer() + LONG_SIZE);
+        }
+        return losers;
+    }
+
+    // skips the body of a CHECKPOINT record
+    private static void skipCheckpoint(RandomAccessFile raf) throws IOException {
+        int numXactions = raf.readInt();
+        raf.seek(raf.getFilePointer() + numXactions * 2 * LONG_SIZE);
+        int numDirty = raf.readInt();
+        for (int i = 0; i < numDirty; i++) {
+            readPageId(raf);
+            raf.readLong();
+        }
+    }
+
+    // the redo pass: repeats history from offset from, losers and CLRs
+    // included, rebuilding each page in the dirty page table in pages from
+    // the records at or after its recLSN
+    private void redo(long from, Map<PageId, Long> dirtyPages, Map<PageId, Page> pages)
+            throws IOException {
+        raf.seek(from);
+        while (raf.getFilePointer() < raf.length()) {
+            long start = raf.getFilePointer();
+            int type = raf.readInt();
+            raf.readLong(); // tid
+
+            switch (type) {
+                case UPDATE_RECORD:
+                case DELTA_RECORD:
+                case CLR_RECORD:
+                    Object image = readRedo(raf, type);
+                    PageId pid = idOf(image);
+                    Long recLSN = dirtyPages.get(pid);
+                    if (recLSN != null && start >= recLSN) {
+                        pages.put(pid, apply(image, pages));
+                    }
+                    break;
+                case CHECKPOINT_RECORD:
+                    skipCheckpoint(raf);
+                    break;
+            }
+            raf.seek(raf.getFilePointer() + LONG_SIZE);
+        }
+    }
+
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
         // some code goes here
     }
 
+    /** Write out the log buffer and force the log to disk. */
     public  synchronized void force() throws IOException {
+        if (currentOffset < 0) {
+            return;  // nothing has been logged
+        }
+        writeBuffer();
         raf.getChannel().force(true);
+        durableLSN = lsnBase + currentOffset;
+    }
+
+    /** Make the log record with the specified LSN, and every record
+     before it, durable.  Does nothing if the log has been forced since
+     the record was appended, so the BufferPool calls this before writing
+     a page rather than forcing the log every time.
+
+     @param lsn The LSN of a log record, e.g. a page's Page.getLSN()
+     */
+    public void flushToLSN(long lsn) throws IOException {
+        if (lsn < durableLSN) {
+            return;
+        }
+        synchronized (this) {
+            if (lsn >= durableLSN) {
+                force();
+            }
+        }
     }
 
 }
@@ -0,0 +1,121 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * LRU-K page replacement (O'Neil, O'Neil and Weikum). The victim is the page
+ * whose K-th most recent reference lies furthest in the past. Pages that have
+ * been referenced fewer than K times count as infinitely old and go first, in
+ * LRU order among themselves. This keeps a single sequential scan, whose
+ * pages are touched only once, from pushing out pages that are used over and
+ * over.
+ * <p>
+ * Pages are kept in a tree ordered by backward K-distance, so a hit or an
+ * eviction costs O(log n).
+ */
+public class LruKReplacementPolicy implements ReplacementPolicy {
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    private long clock;
+    private long nextSeq;
+    private final Map<PageId, History> histories;
+    private final TreeSet<History> order;
+
+    /** Reference history of one resident page. */
+    private static class History implements Comparable<History> {
+        final PageId pid;
+        final long seq;  // breaks ties so distinct pages never compare equal
+        final long[] refs;  // refs[0] is the most recent reference
+        int count;
+
+        History(PageId pid, long seq, int k) {
+            this.pid = pid;
+            this.seq = seq;
+            this.refs = new long[k];
+        }
+
+        void reference(long time) {
+            System.arraycopy(refs, 0, refs, 1, refs.length - 1);
+            refs[0] = time;
+            if (count < refs.length) {
+                count++;
+            }
+        }
+
+        // time of the k-th most recent reference, or MIN_VALUE if unknown
+        long kthReference() {
+            return count < refs.length ? Long.MIN_VALUE : refs[refs.length - 1];
+        }
+
+        public int compareTo(History o) {
+            int c = Long.compare(kthReference(), o.kthReference());
+            if (c == 0) {
+                c = Long.compare(refs[0], o.refs[0]);
+            }
+            if (c == 0) {
+                c = Long.compare(seq, o.seq);
+            }
+            return c;
+        }
+    }
+
+    /**
+     * Creates an LRU-K policy with K = {@link #DEFAULT_K}.
+     */
+    public LruKReplacementPolicy() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k how many past references to remember per page; must be at
+     *   least 1. K = 1 is plain LRU.
+     */
+    public LruKReplacementPolicy(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1");
+        }
+        this.k = k;
+        this.histories = new HashMap<>();
+        this.order = new TreeSet<>();
+    }
+
+    public synchronized void pageAdded(PageId pid) {
+        History h = this.histories.get(pid);
+        if (h == null) {
+            h = new History(pid, this.nextSeq++, this.k);
+            this.histories.put(pid, h);
+        } else {
+            this.order.remove(h);
+        }
+        h.reference(++this.clock);
+        this.order.add(h);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        History h = this.histories.get(pid);
+        if (h != null) {
+            this.order.remove(h);
+            h.reference(++this.clock);
+            this.order.add(h);
+        }
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        History h = this.histories.remove(pid);
+        if (h != null) {
+            this.order.remove(h);
+        }
+    }
+
+    public synchronized PageId chooseVictim(CleanTest clean) {
+        for (History h : this.order) {
+            if (clean.isClean(h.pid)) {
+                return h.pid;
+            }
+        }
+        return this.order.isEmpty() ? null : this.order.first().pid;
+    }
+}
@@ -0,0 +1,132 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * MappedHeapFile is a HeapFile that reads its pages through memory-mapped
+ * views of the file rather than read calls. HeapFile.readPage reads each
+ * page with a system call into a buffer before HeapPage decodes it; here
+ * HeapPage takes the page from a slice of the mapping, so a page that is
+ * already in the operating system's page cache reaches the BufferPool
+ * without a system call, and HeapPage decodes tuples straight from the
+ * slice. A page copies the slice into an array of its own only when it
+ * first changes, or its bytes or before-image are asked for: the mapping
+ * changes when the file is written, and a page and its before-image must
+ * not. This suits large, read-mostly tables.
+ * <p>
+ * The file is mapped in regions of a whole number of pages, so no page
+ * straddles two mappings, and a region is mapped again when the file has
+ * grown past it. Writes still go through writePage; the mappings see them,
+ * since they share the operating system's page cache with the file.
+ * <p>
+ * Use it wherever a HeapFile would do, e.g.
+ * {@code Database.getCatalog().addTable(new MappedHeapFile(f, td), name)}.
+ *
+ * @see HeapFile
+ */
+public class MappedHeapFile extends HeapFile {
+    /** Bytes mapped at a time, rounded down to a whole number of pages. */
+    private static final long REGION_BYTES = 64L << 20;
+
+    // the mapped regions for one page size; replaced, never changed, once published
+    private static class Mapping {
+        final int pageSize;
+        final long regionBytes;
+        final MappedByteBuffer[] regions;
+
+        Mapping(int pageSize, MappedByteBuffer[] regions) {
+            this.pageSize = pageSize;
+            this.regionBytes = REGION_BYTES / pageSize * pageSize;
+            this.regions = regions;
+        }
+    }
+
+    private volatile Mapping mapping = new Mapping(getPageSize(), new MappedByteBuffer[0]);
+
+    /**
+     * Constructs a heap file backed by the specified file, read through
+     * memory mappings.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     */
+    public MappedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, with pages of
+     * the specified size, read through memory mappings.
+     *
+     * @see HeapFile#HeapFile(File, TupleDesc, int)
+     */
+    public MappedHeapFile(File f, TupleDesc td, int pageSize) {
+        super(f, td, pageSize);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) throws IllegalArgumentException {
+        int pageSize = getPageSize();
+        long offset = (long) pid.getPageNumber() * pageSize;
+        try {
+            Mapping m = this.mapping;
+            if (m.pageSize != pageSize) {
+                m = remap(pageSize, -1, 0);
+            }
+            int r = (int) (offset / m.regionBytes);
+            int start = (int) (offset - r * m.regionBytes);
+            if (r >= m.regions.length || m.regions[r] == null || m.regions[r].capacity() < start + pageSize) {
+                m = remap(pageSize, r, start + pageSize);
+                if (m == null) {
+                    // the page is past the end of the file
+                    return super.readPage(pid);
+                }
+            }
+            ByteBuffer page = m.regions[r].duplicate();
+            page.position(start);
+            page.limit(start + pageSize);
+            check(pid.getPageNumber(), page);
+            return new HeapPage((HeapPageId) pid, page.slice());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Maps region r again so that it covers at least needed bytes, or as
+     * much of the file as there is. Drops every mapping if the page size
+     * has changed. Returns null if the file is too short.
+     */
+    private synchronized Mapping remap(int pageSize, int r, long needed) throws IOException {
+        Mapping m = this.mapping;
+        if (m.pageSize != pageSize) {
+            m = new Mapping(pageSize, new MappedByteBuffer[0]);
+            this.mapping = m;
+        }
+        if (r < 0) {
+            return m;
+        }
+        if (r < m.regions.length && m.regions[r] != null && m.regions[r].capacity() >= needed) {
+            // another thread mapped it while we waited for the monitor
+            return m;
+        }
+        FileChannel c = channel();
+        long start = r * m.regionBytes;
+        long available = c.size() - start;
+        if (available < needed) {
+            return null;
+        }
+        MappedByteBuffer[] regions = Arrays.copyOf(m.regions, Math.max(m.regions.length, r + 1));
+        regions[r] = c.map(FileChannel.MapMode.READ_ONLY, start, Math.min(m.regionBytes, available));
+        m = new Mapping(pageSize, regions);
+        this.mapping = m;
+        return m;
+    }
+}
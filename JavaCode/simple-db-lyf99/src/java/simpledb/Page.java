@@ -56,4 +56,23 @@ public interface Page {
      * copy current content to the before image.
      */
     public void setBeforeImage();
+
+    /**
+     * Returns the LSN of the last log record written for this page, which
+     * has to be on disk before the page is; see {@link LogFile#flushToLSN}.
+     * A page that does not keep track returns Long.MAX_VALUE, so the whole
+     * log is forced before it is written.
+     *
+     * @return the page's LSN, or 0 if nothing has been logged for it since
+     *         it was read
+     */
+    default long getLSN() {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Records the LSN of a log record just written for this page.
+     */
+    default void setLSN(long lsn) {
+    }
 }
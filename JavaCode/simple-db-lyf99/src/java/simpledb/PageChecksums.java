@@ -0,0 +1,154 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * PageChecksums keeps a CRC32C of each page of a HeapFile, so that a page
+ * that was damaged on disk, or only partly written when the system went
+ * down, is caught when it is read back instead of being decoded into
+ * garbage.
+ * <p>
+ * The checksums live in a file next to the heap file (its name plus
+ * ".crc"), eight bytes per page: the checksum in the low four bytes, and a
+ * 1 above them if the page has a checksum at all. Pages without one, such
+ * as those of a file written before checksums were kept, are not checked.
+ * A page's checksum is written before the page, so a page write that is
+ * cut short leaves a page that fails its check.
+ * <p>
+ * Neither file is forced when a page is written: HeapFile.force forces
+ * both at a checkpoint. Until then the log's dirty page table keeps the
+ * page, and after a crash recovery rewrites it, and its checksum, from the
+ * log, whatever state the two files were left in.
+ */
+class PageChecksums {
+    private static final long KNOWN = 1L << 32;
+    private static final int ENTRY_SIZE = 8;
+
+    private final File file;
+    private FileChannel channel;
+    private long[] entries;
+    private final ByteBuffer one = ByteBuffer.allocate(ENTRY_SIZE);
+
+    PageChecksums(File heapFile) {
+        this.file = sidecar(heapFile);
+    }
+
+    private static File sidecar(File heapFile) {
+        return new File(heapFile.getPath() + ".crc");
+    }
+
+    /**
+     * Drops the checksums of the specified heap file, for when the file
+     * is about to be written from scratch.
+     */
+    static void discard(File heapFile) {
+        sidecar(heapFile).delete();
+    }
+
+    /** Returns the CRC32C of the specified page bytes. */
+    static int checksum(byte[] data) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, 0, data.length);
+        return (int) crc.getValue();
+    }
+
+    /** Returns the CRC32C of the remaining bytes of the specified buffer. */
+    static int checksum(ByteBuffer data) {
+        CRC32C crc = new CRC32C();
+        crc.update(data.duplicate());
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Records the checksum of page pageNo, whose bytes are about to be
+     * written.
+     */
+    synchronized void record(int pageNo, byte[] data) throws IOException {
+        load();
+        long entry = KNOWN | (checksum(data) & 0xffffffffL);
+        if (pageNo >= this.entries.length) {
+            this.entries = Arrays.copyOf(this.entries,
+                    Math.max(pageNo + 1, this.entries.length * 2));
+        }
+        this.entries[pageNo] = entry;
+        if (this.channel == null) {
+            this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        this.one.clear();
+        this.one.putLong(entry).flip();
+        while (this.one.hasRemaining()) {
+            this.channel.write(this.one, (long) pageNo * ENTRY_SIZE + this.one.position());
+        }
+    }
+
+    /**
+     * Checks page pageNo, whose bytes have the specified checksum, against
+     * the checksum recorded when it was written.
+     *
+     * @throws CorruptPageException if the checksums differ
+     */
+    void verify(int pageNo, int checksum) {
+        long expected;
+        synchronized (this) {
+            load();
+            expected = entryOf(pageNo);
+            if (expected != 0 && (int) expected != checksum) {
+                // another HeapFile on the same file may have written the
+                // page since we loaded, so ask the file before failing
+                this.entries = null;
+                load();
+                expected = entryOf(pageNo);
+            }
+        }
+        if (expected != 0 && (int) expected != checksum) {
+            throw new CorruptPageException(String.format(
+                    "page %d of %s is corrupt: its checksum is %08x but %08x was written",
+                    pageNo, this.file.getName().replaceFirst("\\.crc$", ""), checksum, (int) expected));
+        }
+    }
+
+    /** Forces the checksums written so far to disk. */
+    synchronized void force() throws IOException {
+        if (this.channel != null) {
+            this.channel.force(false);
+        }
+    }
+
+    /** Closes the checksum file; it is opened again if needed. */
+    synchronized void close() throws IOException {
+        if (this.channel != null) {
+            this.channel.close();
+            this.channel = null;
+        }
+    }
+
+    private long entryOf(int pageNo) {
+        return pageNo < this.entries.length ? this.entries[pageNo] : 0;
+    }
+
+    // reads the checksum file the first time it is needed
+    private void load() {
+        if (this.entries != null) {
+            return;
+        }
+        this.entries = new long[0];
+        if (this.file.exists()) {
+            try {
+                LongBuffer b = ByteBuffer.wrap(Files.readAllBytes(this.file.toPath())).asLongBuffer();
+                this.entries = new long[b.remaining()];
+                b.get(this.entries);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ReadAhead reads runs of pages into a BufferPool on a background
+ * thread, so that a sequential scan finds its next pages in the pool
+ * rather than waiting for one disk read per page. HeapFile's iterator
+ * decides what to read; see {@link BufferPool#setReadAhead}.
+ * <p>
+ * There is one thread per BufferPool, a daemon that exits once it has been
+ * idle for a second, so a pool that is reset or dropped leaves nothing
+ * running. Reads are only hints: one that fails or loses a race with a
+ * writer is dropped.
+ */
+class ReadAhead {
+    private final BufferPool pool;
+    private final ThreadPoolExecutor executor;
+
+    ReadAhead(BufferPool pool) {
+        this.pool = pool;
+        this.executor = new ThreadPoolExecutor(0, 1, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), r -> {
+                    Thread t = new Thread(r, "simpledb-read-ahead");
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /**
+     * Reads the specified pages of file into the pool, in the background.
+     */
+    void schedule(DbFile file, List<PageId> pids) {
+        this.executor.execute(() -> {
+            // a page written or dropped after this point may have been
+            // read before the change; the pool refuses the batch then
+            long generation = this.pool.generation();
+            List<Page> pages;
+            try {
+                pages = file.readPages(pids);
+            } catch (IOException | RuntimeException e) {
+                return;
+            }
+            this.pool.addReadAhead(pages, generation);
+        });
+    }
+}
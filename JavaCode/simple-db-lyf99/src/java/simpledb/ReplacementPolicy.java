@@ -0,0 +1,62 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool gives up when
+ * it needs a free frame. The BufferPool tells the policy about every page it
+ * adds, hits and drops, and asks it for a victim when the pool is full.
+ * <p>
+ * Implementations must make {@link #pageAccessed} and {@link #pageScanned}
+ * cheap and safe to call without holding the BufferPool monitor, since they
+ * run on every cache hit.
+ * The remaining methods are only called while the BufferPool monitor is held.
+ *
+ * @see BufferPool
+ * @see ClockReplacementPolicy
+ * @see LruKReplacementPolicy
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Answers whether a resident page could be dropped without writing it
+     * back to disk first.
+     */
+    interface CleanTest {
+        boolean isClean(PageId pid);
+    }
+
+    /**
+     * Record that pid was just brought into the buffer pool.
+     */
+    void pageAdded(PageId pid);
+
+    /**
+     * Record a hit on pid, which is already resident.
+     */
+    void pageAccessed(PageId pid);
+
+    /**
+     * Record that a sequential scan is done with pid, and nobody may need it
+     * again soon: the policy should give it up before the pages in regular
+     * use. Called for scans that should not push the hot pages out of the
+     * pool. The default does nothing.
+     */
+    default void pageScanned(PageId pid) {
+    }
+
+    /**
+     * Forget about pid; it has been evicted or discarded from the pool.
+     */
+    void pageRemoved(PageId pid);
+
+    /**
+     * Choose the page to evict next. Clean pages are preferred over dirty
+     * ones, so a dirty page is only returned when no clean page is a
+     * reasonable candidate. The chosen page is not removed from the policy;
+     * the caller reports that through {@link #pageRemoved} once the page is
+     * gone.
+     *
+     * @param clean tells the policy which resident pages are clean
+     * @return the victim, or null if the policy tracks no pages at all
+     */
+    PageId chooseVictim(CleanTest clean);
+}
@@ -13,6 +13,7 @@ public class SeqScan implements OpIterator {
     private int tableId;
     private String tableAlias;
     private DbFileIterator iterator;
+    private Predicate predicate;
 
 
     private static final long serialVersionUID = 1L;
@@ -82,10 +83,24 @@ public class SeqScan implements OpIterator {
 
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        this.iterator = Database.getCatalog().getDatabaseFile(this.tableId).iterator(this.tid);
+        DbFile file = Database.getCatalog().getDatabaseFile(this.tableId);
+        if (this.predicate != null && file instanceof HeapFile)
+            this.iterator = ((HeapFile) file).iterator(this.tid, this.predicate);
+        else
+            this.iterator = file.iterator(this.tid);
         iterator.open();
     }
 
+    /**
+     * Has the scan return only the tuples that satisfy p, from the next
+     * open on, or all of them if p is null. A HeapFile then skips the
+     * tuples that do not match without decoding them. Filter pushes its
+     * predicate down this way.
+     */
+    void setPredicate(Predicate p) {
+        this.predicate = p;
+    }
+
     /**
      * Returns the TupleDesc with field names from the underlying HeapFile,
      * prefixed with the tableAlias string from the constructor. This prefix
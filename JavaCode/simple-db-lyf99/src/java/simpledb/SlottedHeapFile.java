@@ -0,0 +1,49 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * SlottedHeapFile is a HeapFile whose pages are {@link SlottedPage}s, which
+ * store tuples in as many bytes as their values need. Tables with mostly
+ * short strings fit several times as many tuples on a page as in a
+ * HeapFile, so scans read that many fewer pages.
+ * <p>
+ * The file format is not the HeapPage format, so a file written by
+ * HeapFileEncoder cannot be opened as a SlottedHeapFile; fill it by
+ * inserting tuples instead. A table in a schema file is stored this way if
+ * its line ends with "slotted", see {@link Catalog#loadSchema}.
+ */
+public class SlottedHeapFile extends HeapFile {
+
+    /**
+     * Constructs a slotted heap file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this
+     *          file.
+     */
+    public SlottedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /**
+     * Constructs a slotted heap file backed by the specified file, with
+     * pages of the specified size.
+     *
+     * @throws IllegalArgumentException if pageSize is out of range; slotted
+     *         pages can be at most 64 KB
+     * @see HeapFile#HeapFile(File, TupleDesc, int)
+     */
+    public SlottedHeapFile(File f, TupleDesc td, int pageSize) {
+        super(f, td, pageSize);
+        if (pageSize > SlottedPage.MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("slotted pages can be at most "
+                    + SlottedPage.MAX_PAGE_SIZE + " bytes");
+        }
+    }
+
+    @Override
+    protected TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new SlottedPage(pid, data);
+    }
+}
@@ -0,0 +1,387 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * SlottedPage is a page of variable-length tuples, so that a string takes
+ * only as many bytes as it has characters rather than the
+ * {@link Type#STRING_LEN} + 4 a HeapPage gives it.
+ * <p>
+ * The page starts with two ints: the number of slots in the slot
+ * directory, and the offset at which the tuple data starts (0 on an empty
+ * page, meaning the end of the page). The slot directory follows, with
+ * two unsigned shorts per slot: the offset and length of the slot's tuple,
+ * or zeroes for an empty slot. Tuples are stored back to back from the end
+ * of the page towards the directory, each field in turn: an INT_TYPE as 4
+ * bytes, a STRING_TYPE as a 2-byte length and then that many bytes.
+ * <p>
+ * Deleting a tuple moves the tuples stored before it up over it, so the
+ * free space is always the gap between the directory and the tuple data.
+ * Slot numbers, and so RecordIds, stay the same; an empty slot is reused
+ * by the next insert. Because offsets are shorts, pages can be at most
+ * 64 KB.
+ *
+ * @see SlottedHeapFile
+ */
+public class SlottedPage implements TuplePage {
+
+    private static final int HEADER_SIZE = 8;
+    private static final int SLOT_SIZE = 4;
+    static final int MAX_PAGE_SIZE = 1 << 16;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    private final byte[] data;
+    private final ByteBuffer buf;
+    // the size of the smallest tuple td allows
+    private final int minTupleSize;
+
+    // a copy of data as of the last getPageData call, or null if the page
+    // has changed since; never modified, so the before-image may share it.
+    // The page's monitor guards it, and changes to data.
+    private byte[] image;
+
+    byte[] oldData;
+    private SlottedPage beforeImage;
+    private final Object oldDataLock = new Object();
+
+    private boolean dirty;
+    private TransactionId dirtyTransactionId;
+    // the LSN of the last log record for this page; kept in memory only,
+    // since the page format has no room for it
+    private volatile long lsn = 0;
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk, in
+     * the format described above. The bytes are copied.
+     *
+     * @throws IOException if the bytes are not a valid page
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        int pageSize = Database.getCatalog().getPageSize(id.getTableId());
+        if (pageSize > MAX_PAGE_SIZE)
+            throw new IOException("slotted pages can be at most " + MAX_PAGE_SIZE + " bytes");
+        if (data.length < pageSize)
+            throw new IOException("page data is too short");
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.data = Arrays.copyOf(data, pageSize);
+        this.buf = ByteBuffer.wrap(this.data);
+
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++)
+            size += td.getFieldType(j) == Type.INT_TYPE ? 4 : 2;
+        this.minTupleSize = size;
+
+        int numSlots = getNumSlots();
+        int dataStart = dataStart();
+        if (numSlots < 0 || dataStart > pageSize || HEADER_SIZE + numSlots * SLOT_SIZE > dataStart)
+            throw new IOException("corrupt slotted page " + id);
+        setBeforeImage();
+    }
+
+    /**
+     * Returns the bytes of an empty SlottedPage: all zeroes, as for a
+     * HeapPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return createEmptyPageData(BufferPool.getPageSize());
+    }
+
+    /**
+     * Returns the bytes of an empty SlottedPage of the specified size.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize];
+    }
+
+    public HeapPageId getId() {
+        return this.pid;
+    }
+
+    /**
+     * @return the number of slots in the slot directory, used or not
+     */
+    public int getNumSlots() {
+        return buf.getInt(0);
+    }
+
+    /**
+     * @return the number of bytes between the slot directory and the
+     *         tuple data
+     */
+    public int getFreeSpace() {
+        return dataStart() - HEADER_SIZE - getNumSlots() * SLOT_SIZE;
+    }
+
+    // where the tuple data starts
+    private int dataStart() {
+        int start = buf.getInt(4);
+        return start == 0 ? data.length : start;
+    }
+
+    private int slotOffset(int slot) {
+        return buf.getChar(HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+    private int slotLength(int slot) {
+        return buf.getChar(HEADER_SIZE + slot * SLOT_SIZE + 2);
+    }
+
+    private void setSlot(int slot, int offset, int length) {
+        buf.putChar(HEADER_SIZE + slot * SLOT_SIZE, (char) offset);
+        buf.putChar(HEADER_SIZE + slot * SLOT_SIZE + 2, (char) length);
+    }
+
+    /**
+     * Returns true if the specified slot holds a tuple.
+     */
+    public boolean isSlotUsed(int slot) {
+        return slot >= 0 && slot < getNumSlots() && slotOffset(slot) != 0;
+    }
+
+    // the first empty slot, or getNumSlots() if every slot is used
+    private int firstEmptySlot() {
+        int n = getNumSlots();
+        for (int i = 0; i < n; i++) {
+            if (slotOffset(i) == 0)
+                return i;
+        }
+        return n;
+    }
+
+    // the number of bytes t takes on the page
+    private static int tupleSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE)
+                size += 4;
+            else
+                size += 2 + Math.min(((StringField) t.getField(j)).getValue().length(), Type.STRING_LEN);
+        }
+        return size;
+    }
+
+    // the number of bytes inserting a tuple of the specified size takes
+    private int spaceNeeded(int tupleSize) {
+        return tupleSize + (firstEmptySlot() < getNumSlots() ? 0 : SLOT_SIZE);
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        return spaceNeeded(tupleSize(t)) <= getFreeSpace();
+    }
+
+    public boolean hasRoom() {
+        return spaceNeeded(minTupleSize) <= getFreeSpace();
+    }
+
+    /**
+     * Adds the specified tuple to the page in the first empty slot, or a
+     * new one; the tuple's RecordId is updated to that slot.
+     *
+     * @throws DbException if the tuple does not fit on the page or
+     *         tupledesc is mismatch.
+     */
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(this.td)) {
+            throw new DbException("tupledesc" + " is mismatch.");
+        }
+        int size = tupleSize(t);
+        if (spaceNeeded(size) > getFreeSpace()) {
+            throw new DbException("the page is full!");
+        }
+        image = null;
+        int slot = firstEmptySlot();
+        if (slot == getNumSlots()) {
+            buf.putInt(0, slot + 1);
+        }
+        int offset = dataStart() - size;
+        buf.putInt(4, offset);
+        buf.position(offset);
+        for (int j = 0; j < td.numFields(); j++) {
+            Field f = t.getField(j);
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                buf.putInt(((IntField) f).getValue());
+            } else {
+                String s = ((StringField) f).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                buf.putShort((short) len);
+                for (int c = 0; c < len; c++)
+                    buf.put((byte) s.charAt(c));
+            }
+        }
+        setSlot(slot, offset, size);
+        t.setRecordId(new RecordId(this.pid, slot));
+    }
+
+    /**
+     * Deletes the specified tuple from the page, and closes the gap it
+     * leaves in the tuple data.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot
+     *         is already empty.
+     */
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !this.pid.equals(rid.getPageId())) {
+            throw new DbException("the tuple is not on this page!");
+        }
+        int slot = rid.getTupleNumber();
+        if (!isSlotUsed(slot)) {
+            throw new DbException("the tuple slot is already empty!");
+        }
+        image = null;
+        int offset = slotOffset(slot);
+        int length = slotLength(slot);
+        int start = dataStart();
+
+        // move the tuples stored before this one up over it
+        System.arraycopy(data, start, data, start + length, offset - start);
+        Arrays.fill(data, start, start + length, (byte) 0);
+        int n = getNumSlots();
+        for (int i = 0; i < n; i++) {
+            int o = slotOffset(i);
+            if (o != 0 && o < offset)
+                setSlot(i, o + length, slotLength(i));
+        }
+        setSlot(slot, 0, 0);
+        buf.putInt(4, start + length == data.length ? 0 : start + length);
+
+        // drop empty slots from the end of the directory
+        while (n > 0 && slotOffset(n - 1) == 0)
+            n--;
+        buf.putInt(0, n);
+    }
+
+    // decodes the tuple in the specified slot, which must be used
+    private Tuple readTuple(int slot) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slot));
+        ByteBuffer b = buf.duplicate();
+        b.position(slotOffset(slot));
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                t.setField(j, new IntField(b.getInt()));
+            } else {
+                int len = b.getShort();
+                String s = new String(data, b.position(), len, StandardCharsets.ISO_8859_1);
+                b.position(b.position() + len);
+                t.setField(j, new StringField(s, Type.STRING_LEN));
+            }
+        }
+        return t;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page, in slot order
+     *         (calling remove on this iterator throws an
+     *         UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return iterator(null);
+    }
+
+    /**
+     * @return an iterator over the tuples on this page that satisfy p, or
+     *         over all of them if p is null, in slot order
+     */
+    public Iterator<Tuple> iterator(Predicate p) {
+        return new Iterator<Tuple>() {
+            private int slot = 0;
+            private Tuple next = advance();
+
+            // the next tuple from slot on that satisfies p, or null
+            private Tuple advance() {
+                int n = getNumSlots();
+                while (slot < n) {
+                    int i = slot++;
+                    if (slotOffset(i) != 0) {
+                        Tuple t = readTuple(i);
+                        if (p == null || p.filter(t))
+                            return t;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = next;
+                next = advance();
+                return t;
+            }
+        };
+    }
+
+    /**
+     * Returns the bytes of this page, in the format described above. The
+     * array belongs to the page and callers must not change it; the page
+     * copies its bytes again only after it has changed.
+     */
+    public synchronized byte[] getPageData() {
+        if (image == null)
+            image = data.clone();
+        return image;
+    }
+
+    /** Return a view of this page before it was modified
+     -- used by recovery. The view is built once per before-image and
+     shared by every caller, so it must not be modified. */
+    public SlottedPage getBeforeImage() {
+        try {
+            synchronized (oldDataLock) {
+                if (beforeImage == null)
+                    beforeImage = new SlottedPage(pid, oldData);
+                return beforeImage;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        byte[] data = getPageData();
+        synchronized (oldDataLock) {
+            oldData = data;
+            beforeImage = null;
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        if (dirty) {
+            this.dirtyTransactionId = tid;
+        }
+    }
+
+    public TransactionId isDirty() {
+        if (this.dirty) {
+            return this.dirtyTransactionId;
+        }
+        return null;
+    }
+
+    public long getLSN() {
+        return this.lsn;
+    }
+
+    public void setLSN(long lsn) {
+        this.lsn = lsn;
+    }
+}
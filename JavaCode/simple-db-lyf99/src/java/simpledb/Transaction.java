@@ -9,15 +9,33 @@ import java.io.*;
 
 public class Transaction {
     private final TransactionId tid;
+    private final boolean readOnly;
     volatile boolean started = false;
+    // true while a read-only transaction reads from a snapshot
+    private volatile boolean snapshot = false;
 
     public Transaction() {
+        this(false);
+    }
+
+    /**
+     * @param readOnly true if the transaction will only read. If the buffer
+     *        pool has snapshot isolation on, a read-only transaction reads
+     *        the database as of its start without locking and writes no
+     *        log records; see {@link BufferPool#setSnapshotIsolation}.
+     */
+    public Transaction(boolean readOnly) {
         tid = new TransactionId();
+        this.readOnly = readOnly;
     }
 
     /** Start the transaction running */
     public void start() {
         started = true;
+        if (readOnly && Database.getBufferPool().beginSnapshot(tid)) {
+            snapshot = true;
+            return;
+        }
         try {
             Database.getLogFile().logXactionBegin(tid);
         } catch (IOException e) {
@@ -42,6 +60,13 @@ public class Transaction {
     /** Handle the details of transaction commit / abort */
     public void transactionComplete(boolean abort) throws IOException {
 
+        if (started && snapshot) {
+            Database.getBufferPool().transactionComplete(tid, !abort);
+            snapshot = false;
+            started = false;
+            return;
+        }
+
         if (started) {
             //write abort log record and rollback transaction
             if (abort) {
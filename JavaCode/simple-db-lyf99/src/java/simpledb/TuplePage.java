@@ -0,0 +1,50 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * TuplePage is the interface of the pages a HeapFile keeps its tuples on,
+ * whatever their format on disk.
+ *
+ * @see HeapPage
+ * @see SlottedPage
+ */
+public interface TuplePage extends Page {
+
+    /**
+     * Adds the specified tuple to the page, and sets its RecordId.
+     *
+     * @throws DbException if the tuple does not fit on the page or its
+     *         TupleDesc does not match the page's
+     */
+    public void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Deletes the specified tuple from the page.
+     *
+     * @throws DbException if the tuple is not on this page
+     */
+    public void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * @return true if {@link #insertTuple} would succeed for t
+     */
+    public boolean hasRoomFor(Tuple t);
+
+    /**
+     * @return true if the page may have room for another tuple, i.e. for
+     *         the smallest tuple the page's TupleDesc allows
+     */
+    public boolean hasRoom();
+
+    /**
+     * @return an iterator over all tuples on this page
+     */
+    public Iterator<Tuple> iterator();
+
+    /**
+     * @return an iterator over the tuples on this page that satisfy p, or
+     *         over all of them if p is null
+     */
+    public Iterator<Tuple> iterator(Predicate p);
+}
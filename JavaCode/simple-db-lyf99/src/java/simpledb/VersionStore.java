@@ -0,0 +1,214 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * VersionStore keeps the committed images of pages that are being written
+ * while snapshot readers may still need an older state, so that a read-only
+ * transaction sees the database as of the moment it started without taking
+ * any locks.
+ * <p>
+ * Every commit that touches a page with a version chain gets a commit
+ * timestamp from a logical clock, and a snapshot is the value of that clock
+ * when the read-only transaction began. A reader with snapshot s sees the
+ * newest version of a page whose timestamp is at most s. Pages without a
+ * chain are read in their current committed state.
+ * <p>
+ * A writer preserves the committed image of a page (its before-image) the
+ * first time it fetches the page for writing, before it changes anything.
+ * At commit the new committed image is installed under the commit
+ * timestamp. Versions no active snapshot can see any more are pruned, and
+ * a chain is dropped once it holds a single version and no writer: that
+ * version is then the current committed state anyway.
+ * <p>
+ * Lock order: the store's monitor, then a chain's monitor.
+ */
+class VersionStore {
+    // a committed image of a page; never modified once created
+    private static class Version {
+        final long ts;
+        final Page page;
+
+        Version(long ts, Page page) {
+            this.ts = ts;
+            this.page = page;
+        }
+    }
+
+    // the versions of one page, oldest first; guarded by its own monitor
+    private static class Chain {
+        final ArrayList<Version> versions = new ArrayList<>();
+        boolean writer = false;
+        boolean dead = false;
+    }
+
+    /** Reads the current committed state of a page that has no chain. */
+    interface CommittedReader {
+        Page read(PageId pid) throws DbException;
+    }
+
+    private final Map<PageId, Chain> chains = new ConcurrentHashMap<>();
+    private final CommittedReader committed;
+
+    // guarded by this
+    private long clock = 0;
+    private final TreeMap<Long, Integer> activeSnapshots = new TreeMap<>();
+
+    /**
+     * @param committed reads the current committed state of a page; used
+     *        for pages that have no chain
+     */
+    VersionStore(CommittedReader committed) {
+        this.committed = committed;
+    }
+
+    /** Registers a new snapshot and returns its timestamp. */
+    synchronized long beginSnapshot() {
+        this.activeSnapshots.merge(this.clock, 1, Integer::sum);
+        return this.clock;
+    }
+
+    /** Unregisters a snapshot and prunes the versions only it could see. */
+    synchronized void endSnapshot(long ts) {
+        Integer count = this.activeSnapshots.get(ts);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            this.activeSnapshots.put(ts, count - 1);
+            return;
+        }
+        this.activeSnapshots.remove(ts);
+        if (this.activeSnapshots.isEmpty() || this.activeSnapshots.firstKey() > ts) {
+            long oldest = oldestSnapshot();
+            for (Map.Entry<PageId, Chain> e : this.chains.entrySet()) {
+                synchronized (e.getValue()) {
+                    prune(e.getKey(), e.getValue(), oldest);
+                }
+            }
+        }
+    }
+
+    /**
+     * Called by a writer before it changes page, which must hold the last
+     * committed state (as its before-image) and be locked for writing.
+     * Repeated calls for the same page are cheap.
+     */
+    void preserve(Page page) {
+        PageId pid = page.getId();
+        while (true) {
+            Chain chain = this.chains.computeIfAbsent(pid, k -> new Chain());
+            synchronized (chain) {
+                if (chain.dead) {
+                    continue;
+                }
+                if (chain.versions.isEmpty()) {
+                    chain.versions.add(new Version(0, page.getBeforeImage()));
+                }
+                chain.writer = true;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the page as seen by the snapshot with timestamp ts. The page
+     * may be shared with other readers and must not be modified.
+     */
+    Page read(PageId pid, long ts) throws DbException {
+        while (true) {
+            Chain chain = this.chains.computeIfAbsent(pid, k -> new Chain());
+            synchronized (chain) {
+                if (chain.dead) {
+                    continue;
+                }
+                if (chain.versions.isEmpty()) {
+                    // nobody is writing the page: the committed state is
+                    // what every active snapshot sees. Holding the chain
+                    // keeps a writer from changing it while we read.
+                    Page page = this.committed.read(pid);
+                    if (!chain.writer) {
+                        drop(pid, chain);
+                    }
+                    return page;
+                }
+                for (int i = chain.versions.size() - 1; i >= 0; i--) {
+                    Version v = chain.versions.get(i);
+                    if (v.ts <= ts) {
+                        return v.page;
+                    }
+                }
+                throw new DbException("snapshot " + ts + " of " + pid + " is no longer available");
+            }
+        }
+    }
+
+    /**
+     * Installs the committed images of the pages a transaction wrote, all
+     * under one new commit timestamp, and prunes their chains. Must be
+     * called before the writer releases its locks.
+     */
+    synchronized void commit(Collection<Page> images) {
+        long ts = this.clock + 1;
+        long oldest = oldestSnapshot();
+        for (Page image : images) {
+            Chain chain = this.chains.get(image.getId());
+            if (chain == null) {
+                continue;
+            }
+            synchronized (chain) {
+                chain.versions.add(new Version(ts, image));
+                chain.writer = false;
+                prune(image.getId(), chain, oldest);
+            }
+        }
+        this.clock = ts;
+    }
+
+    /**
+     * Forgets that an aborted transaction was writing the given pages; their
+     * last versions are still the committed state.
+     */
+    synchronized void abort(Collection<PageId> pids) {
+        long oldest = oldestSnapshot();
+        for (PageId pid : pids) {
+            Chain chain = this.chains.get(pid);
+            if (chain == null) {
+                continue;
+            }
+            synchronized (chain) {
+                chain.writer = false;
+                prune(pid, chain, oldest);
+            }
+        }
+    }
+
+    /** Returns the number of pages with a version chain. */
+    int size() {
+        return this.chains.size();
+    }
+
+    // requires this
+    private long oldestSnapshot() {
+        return this.activeSnapshots.isEmpty() ? Long.MAX_VALUE : this.activeSnapshots.firstKey();
+    }
+
+    // drops the versions every snapshot from oldest on sees past; requires chain
+    private void prune(PageId pid, Chain chain, long oldest) {
+        int keep = 0;
+        while (keep + 1 < chain.versions.size() && chain.versions.get(keep + 1).ts <= oldest) {
+            keep++;
+        }
+        chain.versions.subList(0, keep).clear();
+        if (chain.versions.size() <= 1 && !chain.writer) {
+            drop(pid, chain);
+        }
+    }
+
+    // requires chain
+    private void drop(PageId pid, Chain chain) {
+        chain.dead = true;
+        this.chains.remove(pid, chain);
+    }
+}
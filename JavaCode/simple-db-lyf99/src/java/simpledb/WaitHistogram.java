@@ -0,0 +1,67 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * WaitHistogram counts waits in power-of-two microsecond buckets: bucket 0
+ * holds waits under 1us, bucket i holds waits in [2^(i-1), 2^i) us, and the
+ * last bucket holds everything longer. LockMetrics keeps one for lock
+ * waits and GroupCommit one for commits.
+ * <p>
+ * Recording is thread-safe and never blocks.
+ */
+class WaitHistogram {
+    static final int NUM_BUCKETS = 32;
+
+    private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+
+    static int bucketOf(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return Math.min(bucket, NUM_BUCKETS - 1);
+    }
+
+    void record(long nanos) {
+        counts.incrementAndGet(bucketOf(nanos));
+    }
+
+    /** Returns a copy of the counts, one per bucket. */
+    long[] counts() {
+        long[] copy = new long[NUM_BUCKETS];
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return copy;
+    }
+
+    /**
+     * Returns an upper bound, in microseconds, on the given fraction of the
+     * waits; 0 if there are none, and Long.MAX_VALUE if the bound falls in
+     * the last bucket.
+     */
+    long percentileMicros(double fraction) {
+        long[] copy = counts();
+        long total = 0;
+        for (long c : copy) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += copy[i];
+            if (seen >= rank) {
+                return i == NUM_BUCKETS - 1 ? Long.MAX_VALUE : 1L << i;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    void reset() {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * WaitsForGraph records which transactions each blocked transaction waits
+ * for. Edges are kept in both directions, so dropping a transaction costs
+ * time proportional to its own edges. Cycles are only searched for from
+ * edges as they are added: if the graph had no cycle before, any new cycle
+ * must run through a new edge.
+ * <p>
+ * Not thread-safe; LockManager synchronizes on the graph.
+ */
+public class WaitsForGraph {
+    private final Map<TransactionId, Set<TransactionId>> waitsFor = new HashMap<>();
+    private final Map<TransactionId, Set<TransactionId>> waitedBy = new HashMap<>();
+
+    /**
+     * Replaces the transactions tid waits for with blockers.
+     *
+     * @return the transactions on a cycle closed by one of the new edges,
+     *   starting with tid, or null if the graph is still acyclic
+     */
+    public List<TransactionId> setEdges(TransactionId tid, Set<TransactionId> blockers) {
+        Set<TransactionId> out = waitsFor.get(tid);
+        if (out == null) {
+            out = new HashSet<>();
+            waitsFor.put(tid, out);
+        }
+        for (Iterator<TransactionId> it = out.iterator(); it.hasNext(); ) {
+            TransactionId old = it.next();
+            if (!blockers.contains(old)) {
+                it.remove();
+                unlink(waitedBy, old, tid);
+            }
+        }
+        List<TransactionId> added = new ArrayList<>();
+        for (TransactionId blocker : blockers) {
+            if (out.add(blocker)) {
+                waitedBy.computeIfAbsent(blocker, k -> new HashSet<>()).add(tid);
+                added.add(blocker);
+            }
+        }
+        if (out.isEmpty()) {
+            waitsFor.remove(tid);
+        }
+        for (TransactionId blocker : added) {
+            List<TransactionId> path = path(blocker, tid);
+            if (path != null) {
+                path.add(0, tid);
+                path.remove(path.size() - 1);
+                return path;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes the edges out of tid; tid is no longer waiting.
+     */
+    public void removeEdges(TransactionId tid) {
+        Set<TransactionId> out = waitsFor.remove(tid);
+        if (out != null) {
+            for (TransactionId blocker : out) {
+                unlink(waitedBy, blocker, tid);
+            }
+        }
+    }
+
+    /**
+     * Removes tid and every edge into or out of it; tid has finished.
+     */
+    public void removeTransaction(TransactionId tid) {
+        removeEdges(tid);
+        Set<TransactionId> in = waitedBy.remove(tid);
+        if (in != null) {
+            for (TransactionId waiter : in) {
+                unlink(waitsFor, waiter, tid);
+            }
+        }
+    }
+
+    /** Returns the transactions tid waits for. */
+    public Set<TransactionId> blockers(TransactionId tid) {
+        Set<TransactionId> out = waitsFor.get(tid);
+        return out == null ? Collections.<TransactionId>emptySet() : Collections.unmodifiableSet(out);
+    }
+
+    private static void unlink(Map<TransactionId, Set<TransactionId>> edges,
+                               TransactionId from, TransactionId to) {
+        Set<TransactionId> set = edges.get(from);
+        if (set != null) {
+            set.remove(to);
+            if (set.isEmpty()) {
+                edges.remove(from);
+            }
+        }
+    }
+
+    // a path from -> ... -> to following waits-for edges, or null
+    private List<TransactionId> path(TransactionId from, TransactionId to) {
+        Map<TransactionId, TransactionId> parent = new HashMap<>();
+        Deque<TransactionId> stack = new ArrayDeque<>();
+        parent.put(from, null);
+        stack.push(from);
+        while (!stack.isEmpty()) {
+            TransactionId node = stack.pop();
+            if (node.equals(to)) {
+                LinkedList<TransactionId> path = new LinkedList<>();
+                for (TransactionId n = node; n != null; n = parent.get(n)) {
+                    path.addFirst(n);
+                }
+                return path;
+            }
+            Set<TransactionId> out = waitsFor.get(node);
+            if (out == null) {
+                continue;
+            }
+            for (TransactionId next : out) {
+                if (!parent.containsKey(next)) {
+                    parent.put(next, node);
+                    stack.push(next);
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,170 @@
+package simpledb;
+
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BackgroundWriterTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private HeapPageId pid;
+    private BufferPool bp;
+
+    /**
+     * Set up initial resources for each unit test: a table whose first
+     * page has room for more tuples.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        pid = new HeapPageId(hf.getId(), 0);
+        bp = Database.getBufferPool();
+    }
+
+    // starts a transaction that adds a tuple to the first page, and waits
+    // for the background writer to write the page
+    private Transaction insertAndWait() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        bp.insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(new int[] { -1, -1 }));
+        bp.setBackgroundWriter(10, 4);
+        while (bp.getPage(t.getId(), pid, Permissions.READ_ONLY).isDirty() != null) {
+            Thread.sleep(10);
+        }
+        return t;
+    }
+
+    // the number of tuples in the first page on disk
+    private int tuplesOnDisk() throws Exception {
+        int n = 0;
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); it.next()) {
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * The writer logs and writes dirty pages while their transaction runs,
+     * and leaves them in the pool clean.
+     */
+    @Test(timeout = 10000) public void writesDirtyPages() throws Exception {
+        Transaction t = insertAndWait();
+        assertEquals(11, tuplesOnDisk());
+        assertTrue(Database.getLogFile().getBytesLogged(t.getId()) > 0);
+        t.commit();
+        assertEquals(11, tuplesOnDisk());
+    }
+
+    /**
+     * A transaction whose pages the writer wrote still aborts cleanly: the
+     * log undoes what reached the disk.
+     */
+    @Test(timeout = 10000) public void abortUndoesWrittenPages() throws Exception {
+        Transaction t = insertAndWait();
+        t.transactionComplete(true);
+        assertEquals(10, tuplesOnDisk());
+    }
+
+    // waits for the background writer to write the first page again
+    private void waitWritten(Transaction t) throws Exception {
+        while (bp.getPage(t.getId(), pid, Permissions.READ_ONLY).isDirty() != null) {
+            Thread.sleep(10);
+        }
+    }
+
+    // the tuple in the given slot of the first page in the pool
+    private Tuple slot(Transaction t, int tupleno) throws Exception {
+        HeapPage page = (HeapPage) bp.getPage(t.getId(), pid, Permissions.READ_ONLY);
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+            Tuple tuple = it.next();
+            if (tuple.getRecordId().getTupleNumber() == tupleno) {
+                return tuple;
+            }
+        }
+        throw new AssertionError("slot " + tupleno + " is empty");
+    }
+
+    /**
+     * A transaction updates a page several times while the writer writes
+     * it in between, reusing a slot it emptied. After a crash that loses
+     * the table's copy of the page, recovery rebuilds what it committed.
+     */
+    @Test(timeout = 10000) public void recoversAfterCrash() throws Exception {
+        byte[] original = hf.readPage(pid).getPageData();
+        bp.setBackgroundWriter(10, 4);
+        Transaction t = new Transaction();
+        t.start();
+        bp.deleteTuple(t.getId(), slot(t, 5));
+        waitWritten(t);
+        bp.deleteTuple(t.getId(), slot(t, 9));
+        bp.insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(new int[] { -1, -1 }));
+        waitWritten(t);
+        bp.insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(new int[] { -2, -2 }));
+        waitWritten(t);
+        bp.deleteTuple(t.getId(), slot(t, 0));
+        t.commit();
+        bp.setBackgroundWriter(0, 4);
+        byte[] committed = hf.readPage(pid).getPageData();
+
+        // the crash: the page on disk goes back to before the transaction
+        hf.writePage(new HeapPage(pid, original));
+        Database.getLogFile().recover();
+        assertArrayEquals(committed, hf.readPage(pid).getPageData());
+        assertEquals(9, tuplesOnDisk());
+    }
+
+    private static boolean writerRunning() {
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().equals("simpledb-background-writer") && t.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test(timeout = 10000) public void stopsOnReset() throws Exception {
+        bp.setBackgroundWriter(10, 4);
+        while (!writerRunning()) {
+            Thread.sleep(10);
+        }
+        Database.reset();
+        while (writerRunning()) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test public void configuration() throws Exception {
+        assertEquals(0, bp.getBackgroundWriterInterval());
+        assertEquals(BufferPool.DEFAULT_WRITE_BACK_PAGES, bp.getBackgroundWriterPages());
+        bp.setBackgroundWriter(100, 2);
+        assertEquals(100, bp.getBackgroundWriterInterval());
+        assertEquals(2, bp.getBackgroundWriterPages());
+        bp.setBackgroundWriter(0, 2);
+        try {
+            bp.setBackgroundWriter(-1, 2);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // explicitly ignored
+        }
+        try {
+            bp.setBackgroundWriter(10, 0);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // explicitly ignored
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BackgroundWriterTest.class);
+    }
+}
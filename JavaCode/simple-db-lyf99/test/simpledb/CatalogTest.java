@@ -1,6 +1,10 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.PrintWriter;
 
 import java.util.NoSuchElementException;
 import java.util.Random;
@@ -93,6 +97,30 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /**
+     * Unit test for Catalog.getPageSize(), and for the table options of
+     * Catalog.loadSchema()
+     */
+    @Test public void getPageSize() throws Exception {
+        assertEquals(BufferPool.getPageSize(), Database.getCatalog().getPageSize(id1));
+
+        File schema = File.createTempFile("schema", ".txt");
+        schema.deleteOnExit();
+        String facts = SystemTestUtil.getUUID();
+        String names = SystemTestUtil.getUUID();
+        PrintWriter out = new PrintWriter(schema);
+        out.println(facts + " (a int, b int) pagesize 1048576");
+        out.println(names + " (id int, name string) slotted pagesize 8192");
+        out.close();
+        Database.getCatalog().loadSchema(schema.getPath());
+
+        int factsId = Database.getCatalog().getTableId(facts);
+        assertEquals(1 << 20, Database.getCatalog().getPageSize(factsId));
+        int namesId = Database.getCatalog().getTableId(names);
+        assertEquals(8192, Database.getCatalog().getPageSize(namesId));
+        assertTrue(Database.getCatalog().getDatabaseFile(namesId) instanceof SlottedHeapFile);
+    }
+
     /**
      * JUnit suite target
      */
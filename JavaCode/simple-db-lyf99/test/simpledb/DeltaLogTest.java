@@ -0,0 +1,141 @@
+package simpledb;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class DeltaLogTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private HeapPageId pid;
+    private byte[] original;
+
+    /**
+     * Set up initial resources for each unit test: a table whose first
+     * page has room for more tuples.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        pid = new HeapPageId(hf.getId(), 0);
+        original = hf.readPage(pid).getPageData();
+    }
+
+    // a copy of page with one more tuple
+    private HeapPage insert(HeapPage page, int value) throws Exception {
+        HeapPage after = new HeapPage(pid, page.getPageData());
+        after.insertTuple(Utility.getHeapTuple(value, 2));
+        return after;
+    }
+
+    @Test public void diff() throws Exception {
+        byte[] before = new byte[4096];
+        byte[] after = before.clone();
+        after[10] = 1;
+        after[14] = 2;
+        after[2000] = 3;
+
+        LogFile.Delta d = LogFile.Delta.of(pid, before, after);
+        assertArrayEquals(new int[] { 10, 2000 }, d.offsets);
+        assertEquals(5, d.after[0].length);
+        assertEquals(1, d.after[1].length);
+
+        byte[] data = before.clone();
+        d.apply(data, false);
+        assertArrayEquals(after, data);
+        d.apply(data, true);
+        assertArrayEquals(before, data);
+
+        assertEquals(0, LogFile.Delta.of(pid, before, before.clone()).offsets.length);
+    }
+
+    @Test public void diffNoSmallerThanPage() throws Exception {
+        byte[] before = new byte[4096];
+        byte[] after = new byte[4096];
+        Arrays.fill(after, (byte) 1);
+        assertNull(LogFile.Delta.of(pid, before, after));
+        assertNull(LogFile.Delta.of(pid, before, new byte[2048]));
+    }
+
+    /**
+     * The first record for a page after a checkpoint carries full images;
+     * later ones only the bytes that changed.
+     */
+    @Test public void fullImageAfterCheckpoint() throws Exception {
+        // logTruncate renames its new log into place, so stay on one disk
+        File here = new File("deltatest.log");
+        here.deleteOnExit();
+        LogFile log = new LogFile(here);
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        HeapPage page = new HeapPage(pid, original);
+
+        HeapPage after = insert(page, 1);
+        long start = log.getEndLSN();
+        log.logWrite(tid, page, after);
+        assertTrue(log.getEndLSN() - start > 2 * BufferPool.getPageSize());
+
+        HeapPage next = insert(after, 2);
+        start = log.getEndLSN();
+        log.logWrite(tid, after, next);
+        assertTrue(log.getEndLSN() - start < 100);
+
+        log.pagesWritten(Collections.singletonList(next));
+        log.logCheckpoint();
+        start = log.getEndLSN();
+        log.logWrite(tid, next, insert(next, 3));
+        assertTrue(log.getEndLSN() - start > 2 * BufferPool.getPageSize());
+    }
+
+    /**
+     * Rolling back undoes the deltas as well as the full images.
+     */
+    @Test public void rollback() throws Exception {
+        LogFile log = Database.getLogFile();
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        HeapPage page = new HeapPage(pid, original);
+        for (int i = 0; i < 3; i++) {
+            HeapPage after = insert(page, i);
+            log.logWrite(tid, page, after);
+            hf.writePage(after);
+            page = after;
+        }
+        log.rollback(tid);
+        assertArrayEquals(original, hf.readPage(pid).getPageData());
+    }
+
+    /**
+     * Recovery redoes a committed delta that never reached the table.
+     */
+    @Test public void recover() throws Exception {
+        LogFile log = Database.getLogFile();
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        HeapPage page = new HeapPage(pid, original);
+        HeapPage first = insert(page, 1);
+        log.logWrite(tid, page, first);
+        hf.writePage(first);
+        HeapPage second = insert(first, 2);
+        log.logWrite(tid, first, second);
+        log.logCommit(tid);
+
+        log.recover();
+        assertArrayEquals(second.getPageData(), hf.readPage(pid).getPageData());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DeltaLogTest.class);
+    }
+}
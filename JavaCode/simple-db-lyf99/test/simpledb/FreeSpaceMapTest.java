@@ -0,0 +1,112 @@
+package simpledb;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class FreeSpaceMapTest extends TestUtil.CreateHeapFile {
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test: an empty two-column
+     * heap file with two full pages and a third holding one tuple.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        for (int i = 0; i < 504 * 2 + 1; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(3, empty.numPages());
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Inserts go to the page with room without locking the full pages.
+     */
+    @Test public void skipsFullPages() throws Exception {
+        tid = new TransactionId();
+        empty.insertTuple(tid, Utility.getHeapTuple(-1, 2));
+        BufferPool bp = Database.getBufferPool();
+        assertFalse(bp.holdsLock(tid, new HeapPageId(empty.getId(), 0)));
+        assertFalse(bp.holdsLock(tid, new HeapPageId(empty.getId(), 1)));
+        assertTrue(bp.holdsLock(tid, new HeapPageId(empty.getId(), 2)));
+        assertEquals(3, empty.numPages());
+    }
+
+    /**
+     * A delete makes its page a candidate again, and the map is kept in
+     * the file next to the heap file.
+     */
+    @Test public void deleteFreesPage() throws Exception {
+        tid = new TransactionId();
+        HeapPageId pid = new HeapPageId(empty.getId(), 0);
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        empty.deleteTuple(tid, page.iterator().next());
+
+        FreeSpaceMap map = new FreeSpaceMap(empty.getFile());
+        assertEquals(0, map.findPage(3, 0));
+        assertEquals(2, map.findPage(3, 1));
+        map.update(0, false);
+        map.update(2, false);
+        assertEquals(-1, map.findPage(3, 0));
+        // pages the map has never seen may have room
+        assertEquals(3, map.findPage(4, 0));
+    }
+
+    /**
+     * Full pages an insert tries because the map does not know them are
+     * unlocked again, and marked full.
+     */
+    @Test public void unlocksTriedPages() throws Exception {
+        new File(empty.getFile().getPath() + ".fsm").delete();
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        // start looking at page 0
+        do {
+            tid = new TransactionId();
+        } while (tid.getId() % 3 != 0);
+        reopened.insertTuple(tid, Utility.getHeapTuple(-1, 2));
+
+        BufferPool bp = Database.getBufferPool();
+        assertFalse(bp.holdsLock(tid, new HeapPageId(empty.getId(), 0)));
+        assertFalse(bp.holdsLock(tid, new HeapPageId(empty.getId(), 1)));
+        assertTrue(bp.holdsLock(tid, new HeapPageId(empty.getId(), 2)));
+        assertEquals(2, new FreeSpaceMap(empty.getFile()).findPage(3, 0));
+    }
+
+    /**
+     * A page filled by a transaction that aborts has room again.
+     */
+    @Test public void abortKeepsRoom() throws Exception {
+        tid = new TransactionId();
+        for (int i = 0; i < 503; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(-1, new FreeSpaceMap(empty.getFile()).findPage(3, 0));
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        assertEquals(2, new FreeSpaceMap(empty.getFile()).findPage(3, 0));
+        tid = new TransactionId();
+        empty.insertTuple(tid, Utility.getHeapTuple(-1, 2));
+        assertEquals(3, empty.numPages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -0,0 +1,273 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class FuzzyCheckpointTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private HeapPageId pid;
+    private LogFile log;
+
+    /**
+     * Set up initial resources for each unit test: a table whose first
+     * page has room for more tuples, and the Database's log.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        pid = new HeapPageId(hf.getId(), 0);
+        log = Database.getLogFile();
+    }
+
+    // a copy of page with one more tuple
+    private HeapPage insert(HeapPage page, int value) throws Exception {
+        HeapPage after = new HeapPage(pid, page.getPageData());
+        after.insertTuple(Utility.getHeapTuple(value, 2));
+        return after;
+    }
+
+    // the offset of the last checkpoint, from the header of the log
+    private static long lastCheckpoint() throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(new File("log"), "r")) {
+            return raf.length() < LogFile.LONG_SIZE ? -1 : raf.readLong();
+        }
+    }
+
+    private static boolean threadRunning(String name) {
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().equals(name) && t.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A checkpoint neither waits for the BufferPool nor writes its dirty
+     * pages.
+     */
+    @Test(timeout = 10000) public void doesNotBlockBufferPool() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(1, 2));
+
+        Thread checkpoint = new Thread(() -> {
+            try {
+                log.logCheckpoint();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        synchronized (Database.getBufferPool()) {
+            checkpoint.start();
+            checkpoint.join(5000);
+            assertFalse(checkpoint.isAlive());
+        }
+        assertTrue(lastCheckpoint() > 0);
+        Page page = Database.getBufferPool().getPage(t.getId(), pid, Permissions.READ_ONLY);
+        assertEquals(t.getId(), page.isDirty());
+        t.commit();
+    }
+
+    /**
+     * A page logged but not written before a checkpoint is in its dirty
+     * page table, so recovery still redoes it, along with the deltas
+     * logged for it after the checkpoint.
+     */
+    @Test public void redoesDirtyPageTable() throws Exception {
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        HeapPage first = insert(page, 1);
+        log.logWrite(tid, page, first);
+        HeapPage second = insert(first, 2);
+        log.logWrite(tid, first, second);
+        log.logCommit(tid);
+
+        log.logCheckpoint();
+
+        TransactionId next = new TransactionId();
+        log.logXactionBegin(next);
+        HeapPage third = insert(second, 3);
+        long start = log.getEndLSN();
+        log.logWrite(next, second, third);
+        assertTrue(log.getEndLSN() - start < 100);
+        log.logCommit(next);
+
+        log.recover();
+        assertArrayEquals(third.getPageData(), hf.readPage(pid).getPageData());
+    }
+
+    /**
+     * Until a checkpoint forces it, a written page stays in the dirty page
+     * table: if the crash leaves the page and its checksum out of step,
+     * recovery rewrites both from the log.
+     */
+    @Test public void rewritesPagesNotForced() throws Exception {
+        byte[] original = hf.readPage(pid).getPageData();
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(1, 2));
+        t.commit();
+        byte[] committed = hf.readPage(pid).getPageData();
+
+        // the crash: the page write is lost, but its checksum is not
+        try (RandomAccessFile raf = new RandomAccessFile(hf.getFile(), "rw")) {
+            raf.write(original);
+        }
+        try {
+            hf.readPage(pid);
+            fail("expected CorruptPageException");
+        } catch (CorruptPageException e) {
+            // explicitly ignored
+        }
+        log.recover();
+        assertArrayEquals(committed, hf.readPage(pid).getPageData());
+    }
+
+    /**
+     * A checkpoint forces the files written since the last one before
+     * their pages leave the dirty page table, and only those.
+     */
+    @Test public void forcesWrittenFiles() throws Exception {
+        int[] forces = new int[1];
+        HeapFile counted = new HeapFile(hf.getFile(), hf.getTupleDesc()) {
+            @Override
+            public void force() throws IOException {
+                forces[0]++;
+                super.force();
+            }
+        };
+        Database.getCatalog().addTable(counted, "counted");
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), counted.getId(), Utility.getHeapTuple(1, 2));
+        t.commit();
+        assertEquals(0, forces[0]);
+
+        log.logCheckpoint();
+        assertEquals(1, forces[0]);
+        log.logCheckpoint();
+        assertEquals(1, forces[0]);
+    }
+
+    // begins and commits a transaction that inserts a tuple into file
+    private static void insertAndCommit(HeapFile file) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), file.getId(), Utility.getHeapTuple(1, 2));
+        t.commit();
+    }
+
+    /**
+     * A background checkpoint forces files without holding the log, so
+     * transactions commit while it waits for the disk, including pages
+     * written during an earlier force.
+     */
+    @Test(timeout = 10000) public void commitsWhileForcing() throws Exception {
+        Semaphore forcing = new Semaphore(0);
+        Semaphore release = new Semaphore(0);
+        HeapFile slow = new HeapFile(hf.getFile(), hf.getTupleDesc()) {
+            @Override
+            public void force() throws IOException {
+                forcing.release();
+                release.acquireUninterruptibly();
+                super.force();
+            }
+        };
+        Database.getCatalog().addTable(slow, "slow");
+        insertAndCommit(slow);
+
+        Thread checkpoint = new Thread(() -> {
+            try {
+                log.scheduledCheckpoint();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        checkpoint.start();
+        forcing.acquire();
+        insertAndCommit(slow);
+        assertTrue(checkpoint.isAlive());
+        release.release();
+
+        // if the checkpoint forces again, for the page written meanwhile,
+        // it must not hold up commits either
+        if (forcing.tryAcquire(500, TimeUnit.MILLISECONDS)) {
+            insertAndCommit(slow);
+            assertTrue(checkpoint.isAlive());
+            release.release();
+        }
+        checkpoint.join();
+        assertTrue(lastCheckpoint() > 0);
+    }
+
+    @Test(timeout = 10000) public void checkpointsByLogSize() throws Exception {
+        log.setCheckpointPolicy(1024, 0);
+        while (lastCheckpoint() <= 0) {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            log.logCommit(tid);
+        }
+    }
+
+    @Test(timeout = 10000) public void checkpointsByTime() throws Exception {
+        log.logXactionBegin(new TransactionId());
+        log.setCheckpointPolicy(0, 20);
+        while (lastCheckpoint() <= 0) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test(timeout = 10000) public void stopsOnReset() throws Exception {
+        log.logXactionBegin(new TransactionId());
+        log.setCheckpointPolicy(0, 20);
+        while (!threadRunning("simpledb-checkpoint")) {
+            Thread.sleep(10);
+        }
+        Database.reset();
+        while (threadRunning("simpledb-checkpoint")) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test public void configuration() throws Exception {
+        assertEquals(0, log.getCheckpointLogBytes());
+        assertEquals(0, log.getCheckpointIntervalMillis());
+        log.setCheckpointPolicy(1 << 20, 1000);
+        assertEquals(1 << 20, log.getCheckpointLogBytes());
+        assertEquals(1000, log.getCheckpointIntervalMillis());
+        log.setCheckpointPolicy(0, 0);
+        try {
+            log.setCheckpointPolicy(-1, 0);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // explicitly ignored
+        }
+        try {
+            log.setCheckpointPolicy(0, -1);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // explicitly ignored
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FuzzyCheckpointTest.class);
+    }
+}
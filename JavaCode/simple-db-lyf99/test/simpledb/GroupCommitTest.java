@@ -0,0 +1,167 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+    private static final int THREADS = 8;
+    private static final int RECORD_SIZE = LogFile.INT_SIZE + 2 * LogFile.LONG_SIZE;
+
+    // a log that counts its forces
+    private static class CountingLogFile extends LogFile {
+        final AtomicInteger forces = new AtomicInteger();
+
+        CountingLogFile(File f) throws IOException {
+            super(f);
+        }
+
+        public synchronized void force() throws IOException {
+            forces.incrementAndGet();
+            super.force();
+        }
+    }
+
+    private File f;
+    private CountingLogFile log;
+
+    /**
+     * Set up initial resources for each unit test: a log of its own, not
+     * the Database's.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        f = File.createTempFile("log", ".log");
+        f.deleteOnExit();
+        log = new CountingLogFile(f);
+    }
+
+    // begins THREADS transactions, then commits them all at once; returns
+    // the number of forces the commits took
+    private int commitConcurrently() throws Exception {
+        List<TransactionId> tids = new ArrayList<TransactionId>();
+        for (int i = 0; i < THREADS; i++) {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            tids.add(tid);
+        }
+        int before = log.forces.get();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        List<Throwable> errors = new ArrayList<Throwable>();
+        for (TransactionId tid : tids) {
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                    log.logCommit(tid);
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+        for (Thread t : threads)
+            t.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+        return log.forces.get() - before;
+    }
+
+    /**
+     * Commits that arrive while a batch is filling share one write and one
+     * force, and every record makes it into the log.
+     */
+    @Test public void batchesCommits() throws Exception {
+        log.setGroupCommit(200000, THREADS);
+        assertEquals(1, commitConcurrently());
+        assertEquals(2 * THREADS, log.getTotalRecords());
+        assertEquals(LogFile.LONG_SIZE + 2 * THREADS * RECORD_SIZE, f.length());
+    }
+
+    /**
+     * With a batch size of 1, every commit is forced on its own.
+     */
+    @Test public void batchSizeOne() throws Exception {
+        log.setGroupCommit(0, 1);
+        assertEquals(THREADS, commitConcurrently());
+        assertEquals(LogFile.LONG_SIZE + 2 * THREADS * RECORD_SIZE, f.length());
+    }
+
+    /**
+     * A lone commit does not wait for a batch to fill past the delay.
+     */
+    @Test public void delayBoundsLatency() throws Exception {
+        log.setGroupCommit(50000, 100);
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        long start = System.nanoTime();
+        log.logCommit(tid);
+        long millis = (System.nanoTime() - start) / 1000000;
+        assertTrue(millis >= 50);
+        assertTrue(millis < 5000);
+    }
+
+    /**
+     * Every commit's wait goes into the latency histogram, and a batch
+     * delay shows up in the percentiles.
+     */
+    @Test public void reportsLatency() throws Exception {
+        assertEquals(0, log.getCommitLatencyPercentileMicros(0.99));
+        log.setGroupCommit(0, THREADS);
+        commitConcurrently();
+        long total = 0;
+        for (long c : log.getCommitLatencyHistogram())
+            total += c;
+        assertEquals(THREADS, total);
+
+        log.resetCommitLatency();
+        log.setGroupCommit(50000, 100);
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logCommit(tid);
+        // 50ms falls in the bucket up to 2^16us
+        assertTrue(log.getCommitLatencyPercentileMicros(0.5) >= 1 << 16);
+        assertEquals(log.getCommitLatencyPercentileMicros(0.5), log.getCommitLatencyPercentileMicros(1.0));
+    }
+
+    @Test public void configuration() throws Exception {
+        assertEquals(LogFile.DEFAULT_COMMIT_DELAY_MICROS, log.getCommitDelayMicros());
+        assertEquals(LogFile.DEFAULT_COMMIT_BATCH, log.getCommitBatchSize());
+        log.setGroupCommit(10, 2);
+        assertEquals(10, log.getCommitDelayMicros());
+        assertEquals(2, log.getCommitBatchSize());
+        try {
+            log.setGroupCommit(-1, 2);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // explicitly ignored
+        }
+        try {
+            log.setGroupCommit(0, 0);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // explicitly ignored
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
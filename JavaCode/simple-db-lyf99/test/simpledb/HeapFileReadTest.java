@@ -77,6 +77,28 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPages(): pages come back in the order asked
+     * for, the same as readPage reads them, and pages past the end of the
+     * file are empty.
+     */
+    @Test
+    public void readPages() throws Exception {
+        HeapFile four = SystemTestUtil.createRandomHeapFile(2, 504 * 3 + 10, null, null);
+        List<PageId> pids = new ArrayList<PageId>();
+        for (int pgNo : new int[] { 3, 0, 1, 5 })
+            pids.add(new HeapPageId(four.getId(), pgNo));
+        List<Page> pages = four.readPages(pids);
+
+        assertEquals(pids.size(), pages.size());
+        for (int i = 0; i < pids.size(); i++) {
+            assertEquals(pids.get(i), pages.get(i).getId());
+            assertArrayEquals(four.readPage(pids.get(i)).getPageData(), pages.get(i).getPageData());
+        }
+        assertEquals(504 - 10, ((HeapPage) pages.get(0)).getNumEmptySlots());
+        assertEquals(504, ((HeapPage) pages.get(3)).getNumEmptySlots());
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -121,6 +143,33 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.iterator(TransactionId, Predicate), across
+     * pages
+     */
+    @Test
+    public void testIteratorPredicate() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile twoPageFile = SystemTestUtil.createRandomHeapFile(2, 520, 100,
+                null, tuples);
+        Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(30));
+
+        int expected = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) < 30)
+                expected++;
+        }
+        DbFileIterator it = twoPageFile.iterator(tid, p);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            assertTrue(p.filter(it.next()));
+            count += 1;
+        }
+        assertEquals(expected, count);
+        it.close();
+    }
+
     /**
      * JUnit suite target
      */
@@ -1,5 +1,9 @@
 package simpledb;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -86,6 +90,75 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.writePages(): pages given in any order land at
+     * their own offsets, and the file grows to the last of them.
+     */
+    @Test public void writePages() throws Exception {
+        List<Page> pages = new ArrayList<Page>();
+        for (int pgNo : new int[] { 2, 0, 4, 1 }) {
+            HeapPage page = new HeapPage(new HeapPageId(empty.getId(), pgNo),
+                    HeapPage.createEmptyPageData());
+            for (int i = 0; i <= pgNo; i++)
+                page.insertTuple(Utility.getHeapTuple(pgNo * 10 + i, 2));
+            pages.add(page);
+        }
+        empty.writePages(pages);
+
+        assertEquals(5, empty.numPages());
+        for (Page page : pages)
+            assertArrayEquals(page.getPageData(), empty.readPage(page.getId()).getPageData());
+        HeapPage hole = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), 3));
+        assertEquals(504, hole.getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for a HeapFile with its own page size: its pages hold as
+     * many tuples as fit in that size, and the file grows a page at a time.
+     */
+    @Test public void ownPageSize() throws Exception {
+        File f = File.createTempFile("large", ".dat");
+        f.deleteOnExit();
+        HeapFile large = new HeapFile(f, Utility.getTupleDesc(2), 1 << 16);
+        Database.getCatalog().addTable(large, SystemTestUtil.getUUID());
+        assertEquals(1 << 16, large.getPageSize());
+
+        int slots = (1 << 16) * 8 / (8 * 8 + 1);
+        for (int i = 0; i < slots + 1; i++)
+            Database.getBufferPool().insertTuple(tid, large.getId(), Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(2, large.numPages());
+        assertEquals(2L << 16, f.length());
+
+        HeapPage page = (HeapPage) large.readPage(new HeapPageId(large.getId(), 0));
+        assertEquals(0, page.getNumEmptySlots());
+        assertEquals(1 << 16, page.getPageData().length);
+        page = (HeapPage) large.readPage(new HeapPageId(large.getId(), 1));
+        assertEquals(slots - 1, page.getNumEmptySlots());
+    }
+
+    /**
+     * Page sizes from 4 KB to 1 MB are supported.
+     */
+    @Test public void pageSizeOutOfRange() throws Exception {
+        File f = new File("unused.dat");
+        new HeapFile(f, Utility.getTupleDesc(2), HeapFile.MIN_PAGE_SIZE);
+        new HeapFile(f, Utility.getTupleDesc(2), HeapFile.MAX_PAGE_SIZE);
+        try {
+            new HeapFile(f, Utility.getTupleDesc(2), HeapFile.MIN_PAGE_SIZE - 1);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // explicitly ignored
+        }
+        try {
+            new HeapFile(f, Utility.getTupleDesc(2), HeapFile.MAX_PAGE_SIZE + 1);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // explicitly ignored
+        }
+        assertFalse(f.exists());
+    }
+
     /**
      * JUnit suite target
      */
@@ -120,6 +120,36 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getInt() and HeapPage.getField(), which read
+     * single fields without decoding whole tuples
+     */
+    @Test public void getFields() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+
+        for (int i = 0; i < EXAMPLE_VALUES.length; ++i) {
+            assertEquals(EXAMPLE_VALUES[i][1], page.getInt(i, 1));
+            assertEquals(new IntField(EXAMPLE_VALUES[i][0]), page.getField(i, 0));
+        }
+    }
+
+    /**
+     * Unit test for HeapPage.iterator(Predicate)
+     */
+    @Test public void testPredicateIterator() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(40000));
+        Iterator<Tuple> it = page.iterator(p);
+
+        for (int[] values : EXAMPLE_VALUES) {
+            if (values[0] > 40000) {
+                assertTrue(it.hasNext());
+                assertEquals(new IntField(values[1]), it.next().getField(1));
+            }
+        }
+        assertFalse(it.hasNext());
+    }
+
     /**
      * JUnit suite target
      */
@@ -1,6 +1,9 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
@@ -126,6 +129,84 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getPageData() after changes: only changed
+     * slots are serialized again, and the result reads back as the page.
+     */
+    @Test public void getPageDataAfterChanges() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getPageData());
+
+        Iterator<Tuple> it = page.iterator();
+        it.next();
+        page.deleteTuple(it.next());
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+        page.insertTuple(Utility.getHeapTuple(8, 2));
+        page.getPageData();
+        page.deleteTuple(it.next());
+
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        Iterator<Tuple> expected = page.iterator();
+        Iterator<Tuple> actual = copy.iterator();
+        while (expected.hasNext())
+            assertTrue(TestUtil.compareTuples(expected.next(), actual.next()));
+        assertFalse(actual.hasNext());
+    }
+
+    /**
+     * Unit test for HeapPage.getBeforeImage(): the before-image shares the
+     * page's bytes until the page changes, and does not see the change.
+     */
+    @Test public void beforeImageCopyOnWrite() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        int free = page.getNumEmptySlots();
+
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+        page.setBeforeImage();
+        HeapPage before = page.getBeforeImage();
+        assertSame(before, page.getBeforeImage());
+        assertArrayEquals(page.getPageData(), before.getPageData());
+
+        page.deleteTuple(page.iterator().next());
+        page.getPageData();
+        assertEquals(free - 1, page.getBeforeImage().getNumEmptySlots());
+        assertEquals(free - 1, new HeapPage(pid, before.getPageData()).getNumEmptySlots());
+        assertEquals(free, page.getNumEmptySlots());
+
+        page.setBeforeImage();
+        assertEquals(free, page.getBeforeImage().getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for HeapPage.insertTuple() on a page emptied in places:
+     * each insert takes the lowest empty slot, across header words.
+     */
+    @Test public void insertFillsLowestSlot() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        Tuple[] inserted = new Tuple[200];
+        for (int i = 0; i < inserted.length; i++) {
+            inserted[i] = Utility.getHeapTuple(i, 2);
+            page.insertTuple(inserted[i]);
+            assertEquals(i, inserted[i].getRecordId().getTupleNumber());
+        }
+        page.deleteTuple(inserted[130]);
+        page.deleteTuple(inserted[63]);
+        page.deleteTuple(inserted[64]);
+
+        int[] expected = { 63, 64, 130, 200 };
+        for (int slot : expected) {
+            Tuple t = Utility.getHeapTuple(-1, 2);
+            page.insertTuple(t);
+            assertEquals(slot, t.getRecordId().getTupleNumber());
+        }
+        int count = 0;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); it.next())
+            count++;
+        assertEquals(201, count);
+        assertEquals(504 - 201, page.getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,353 @@
+package simpledb;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class LockManagerTest extends SimpleDbTestBase {
+    /** Time to wait before checking the state of lock contention, in ms */
+    private static final int TIMEOUT = 100;
+
+    private LockManager lm;
+    private PageId p0, p1;
+    private TransactionId tid1, tid2, tid3;
+
+    @Before public void setUp() throws Exception {
+        lm = new LockManager();
+        p0 = new HeapPageId(-1, 0);
+        p1 = new HeapPageId(-1, 1);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+        tid3 = new TransactionId();
+    }
+
+    /** Grabs a lock on a separate thread, like LockingTest's LockGrabber. */
+    private static class Grabber extends Thread {
+        private final LockManager lm;
+        private final TransactionId tid;
+        private final PageId pid;
+        private final Permissions perm;
+        volatile boolean acquired = false;
+        volatile Exception error = null;
+
+        Grabber(LockManager lm, TransactionId tid, PageId pid, Permissions perm) {
+            this.lm = lm;
+            this.tid = tid;
+            this.pid = pid;
+            this.perm = perm;
+        }
+
+        public void run() {
+            try {
+                lm.grabLock(tid, pid, perm);
+                acquired = true;
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+    }
+
+    private Grabber grab(TransactionId tid, Permissions perm) throws InterruptedException {
+        return grab(tid, p0, perm);
+    }
+
+    private Grabber grab(TransactionId tid, PageId pid, Permissions perm) throws InterruptedException {
+        Grabber g = new Grabber(lm, tid, pid, perm);
+        g.start();
+        g.join(TIMEOUT);
+        return g;
+    }
+
+    /**
+     * A reader that arrives while a writer is queued waits behind it, even
+     * though it would be compatible with the current readers.
+     */
+    @Test public void writerNotStarvedByReaders() throws Exception {
+        lm.grabLock(tid1, p0, Permissions.READ_ONLY);
+        Grabber writer = grab(tid2, Permissions.READ_WRITE);
+        assertFalse(writer.acquired);
+
+        Grabber reader = grab(tid3, Permissions.READ_ONLY);
+        assertFalse(reader.acquired);
+
+        lm.releaseLock(tid1, p0);
+        writer.join(TIMEOUT);
+        assertTrue(writer.acquired);
+        assertFalse(reader.acquired);
+
+        lm.releaseLockTid(tid2);
+        reader.join(TIMEOUT);
+        assertTrue(reader.acquired);
+        assertNull(reader.error);
+    }
+
+    /**
+     * Releasing an exclusive lock grants every reader queued at the head of
+     * the queue at once.
+     */
+    @Test public void readersGrantedTogether() throws Exception {
+        lm.grabLock(tid1, p0, Permissions.READ_WRITE);
+        Grabber r2 = grab(tid2, Permissions.READ_ONLY);
+        Grabber r3 = grab(tid3, Permissions.READ_ONLY);
+        assertFalse(r2.acquired);
+        assertFalse(r3.acquired);
+
+        lm.releaseLockTid(tid1);
+        r2.join(TIMEOUT);
+        r3.join(TIMEOUT);
+        assertTrue(r2.acquired);
+        assertTrue(r3.acquired);
+        assertTrue(lm.holdsLock(tid2, p0));
+        assertTrue(lm.holdsLock(tid3, p0));
+    }
+
+    /**
+     * An upgrade goes ahead of requests that queued before it.
+     */
+    @Test public void upgradeJumpsQueue() throws Exception {
+        lm.grabLock(tid1, p0, Permissions.READ_ONLY);
+        lm.grabLock(tid2, p0, Permissions.READ_ONLY);
+        Grabber writer = grab(tid3, Permissions.READ_WRITE);
+        assertFalse(writer.acquired);
+
+        Grabber upgrade = grab(tid1, Permissions.READ_WRITE);
+        assertFalse(upgrade.acquired);
+
+        lm.releaseLock(tid2, p0);
+        upgrade.join(TIMEOUT);
+        assertTrue(upgrade.acquired);
+        assertFalse(writer.acquired);
+
+        lm.releaseLockTid(tid1);
+        writer.join(TIMEOUT);
+        assertTrue(writer.acquired);
+    }
+
+    /**
+     * With the YOUNGEST victim policy, the younger transaction is aborted
+     * even though the older one closed the cycle.
+     */
+    @Test public void youngestVictim() throws Exception {
+        lm = new LockManager(LockManager.DeadlockPolicy.DETECT, LockManager.VictimPolicy.YOUNGEST);
+        lm.grabLock(tid1, p0, Permissions.READ_ONLY);
+        lm.grabLock(tid2, p1, Permissions.READ_ONLY);
+        Grabber young = grab(tid2, p0, Permissions.READ_WRITE);
+        Grabber old = grab(tid1, p1, Permissions.READ_WRITE);
+
+        young.join(TIMEOUT);
+        assertFalse(young.acquired);
+        assertTrue(young.error instanceof TransactionAbortedException);
+        assertFalse(old.acquired);
+
+        lm.releaseLockTid(tid2);
+        old.join(TIMEOUT);
+        assertTrue(old.acquired);
+    }
+
+    /**
+     * Under wait-die an older transaction waits for a younger one, and a
+     * younger one aborts instead of waiting for an older one.
+     */
+    @Test public void waitDie() throws Exception {
+        lm = new LockManager(LockManager.DeadlockPolicy.WAIT_DIE, LockManager.VictimPolicy.REQUESTER);
+        lm.grabLock(tid1, p0, Permissions.READ_WRITE);
+        lm.grabLock(tid2, p1, Permissions.READ_WRITE);
+
+        Grabber old = grab(tid1, p1, Permissions.READ_ONLY);
+        assertFalse(old.acquired);
+        assertNull(old.error);
+
+        Grabber young = grab(tid2, p0, Permissions.READ_ONLY);
+        assertTrue(young.error instanceof TransactionAbortedException);
+
+        lm.releaseLockTid(tid2);
+        old.join(TIMEOUT);
+        assertTrue(old.acquired);
+    }
+
+    /**
+     * Under wound-wait an older transaction aborts a younger one that holds
+     * the lock it wants, if the younger one is waiting or asks for a lock
+     * later.
+     */
+    @Test public void woundWait() throws Exception {
+        lm = new LockManager(LockManager.DeadlockPolicy.WOUND_WAIT, LockManager.VictimPolicy.REQUESTER);
+        lm.grabLock(tid1, p1, Permissions.READ_WRITE);
+        lm.grabLock(tid2, p0, Permissions.READ_WRITE);
+
+        // the younger transaction may wait for the older one
+        Grabber young = grab(tid2, p1, Permissions.READ_ONLY);
+        assertFalse(young.acquired);
+        assertNull(young.error);
+
+        // until the older one wants a lock the younger one holds
+        Grabber old = grab(tid1, p0, Permissions.READ_ONLY);
+        young.join(TIMEOUT);
+        assertTrue(young.error instanceof TransactionAbortedException);
+        assertFalse(old.acquired);
+
+        lm.releaseLockTid(tid2);
+        old.join(TIMEOUT);
+        assertTrue(old.acquired);
+    }
+
+    /**
+     * A request that is not granted before its timeout aborts the
+     * transaction and leaves the queue, so later requests are not held up.
+     */
+    @Test public void timeoutExpires() throws Exception {
+        lm.grabLock(tid1, p0, Permissions.READ_WRITE);
+        long start = System.currentTimeMillis();
+        try {
+            lm.grabLock(tid2, p0, Permissions.READ_ONLY, 50);
+            fail("expected the request to time out");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        assertTrue(System.currentTimeMillis() - start >= 50);
+        assertFalse(lm.holdsLock(tid2, p0));
+        assertEquals(1, lm.getMetrics().getTimeouts());
+
+        lm.releaseLockTid(tid1);
+        lm.grabLock(tid3, p0, Permissions.READ_WRITE, 50);
+        assertTrue(lm.holdsLock(tid3, p0));
+    }
+
+    /**
+     * The metrics count grants, upgrades, waits, deadlock aborts and the
+     * pages requests queued on.
+     */
+    @Test public void metricsCount() throws Exception {
+        LockMetrics metrics = lm.getMetrics();
+        lm.grabLock(tid1, p0, Permissions.READ_ONLY);
+        lm.grabLock(tid1, p0, Permissions.READ_WRITE);
+        lm.grabLock(tid2, p1, Permissions.READ_ONLY);
+        // two table intention locks, two page locks, and an upgrade of each
+        assertEquals(6, metrics.getGrants());
+        assertEquals(2, metrics.getUpgrades());
+        assertEquals(0, metrics.getWaits());
+
+        Grabber waiter = grab(tid2, p0, Permissions.READ_ONLY);
+        try {
+            lm.grabLock(tid1, p1, Permissions.READ_WRITE);
+            fail("expected a deadlock");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        lm.releaseLockTid(tid1);
+        waiter.join(TIMEOUT);
+        assertTrue(waiter.acquired);
+
+        assertEquals(2, metrics.getWaits());
+        assertEquals(1, metrics.getDeadlockAborts());
+        assertEquals(p0, metrics.hottestLocks(1).get(0).getKey());
+        assertEquals(2, metrics.hottestLocks(3).size());
+        assertTrue(metrics.getWaitPercentileMicros(1.0) > 0);
+    }
+
+    /**
+     * The metrics count queued requests for a bounded number of locks,
+     * keeping the hot ones when they drop cold ones.
+     */
+    @Test public void metricsTrackBoundedLocks() throws Exception {
+        LockMetrics metrics = lm.getMetrics();
+        for (int i = 0; i < 10; i++) {
+            metrics.recordQueued(p0);
+        }
+        for (int i = 0; i < 4 * LockMetrics.MAX_TRACKED_LOCKS; i++) {
+            metrics.recordQueued(new HeapPageId(-2, i));
+        }
+        List<Map.Entry<Object, Long>> hot = metrics.hottestLocks(Integer.MAX_VALUE);
+        assertTrue(hot.size() <= LockMetrics.MAX_TRACKED_LOCKS);
+        assertEquals(p0, hot.get(0).getKey());
+        assertEquals(10, (long) hot.get(0).getValue());
+    }
+
+    /**
+     * A table lock covers every page of the table, and conflicts with the
+     * intention locks other transactions take to lock pages.
+     */
+    @Test public void tableLockCoversPages() throws Exception {
+        lm.grabTableLock(tid1, -1, LockMode.S, LockManager.NO_TIMEOUT);
+        assertTrue(lm.holdsLock(tid1, p0));
+        assertTrue(lm.holdsLock(tid1, p1));
+        assertEquals(1, lm.getMetrics().getGrants());  // one lock for the whole table
+
+        // readers of single pages get along with the table reader
+        lm.grabLock(tid2, p0, Permissions.READ_ONLY);
+        assertEquals(LockMode.IS, lm.getTableLockMode(tid2, -1));
+
+        // a writer needs IX on the table and has to wait
+        Grabber writer = grab(tid3, p1, Permissions.READ_WRITE);
+        assertFalse(writer.acquired);
+        lm.releaseLockTid(tid1);
+        writer.join(TIMEOUT);
+        assertTrue(writer.acquired);
+        assertEquals(LockMode.IX, lm.getTableLockMode(tid3, -1));
+    }
+
+    /**
+     * Past the escalation threshold, page locks are traded for a table
+     * lock of the same strength.
+     */
+    @Test public void escalation() throws Exception {
+        lm.setEscalationThreshold(3);
+        for (int i = 0; i < 4; i++) {
+            lm.grabLock(tid1, new HeapPageId(-1, i), Permissions.READ_ONLY);
+        }
+        assertEquals(LockMode.S, lm.getTableLockMode(tid1, -1));
+        assertEquals(1, lm.getMetrics().getEscalations());
+        assertTrue(lm.holdsLock(tid1, new HeapPageId(-1, 100)));
+
+        // a writer that shares the table blocks escalation until it is gone
+        lm.grabLock(tid2, new HeapPageId(-2, 0), Permissions.READ_WRITE);
+        for (int i = 1; i < 5; i++) {
+            lm.grabLock(tid3, new HeapPageId(-2, i), Permissions.READ_WRITE);
+        }
+        assertEquals(LockMode.IX, lm.getTableLockMode(tid3, -2));
+        lm.releaseLockTid(tid2);
+        lm.grabLock(tid3, new HeapPageId(-2, 5), Permissions.READ_WRITE);
+        assertEquals(LockMode.X, lm.getTableLockMode(tid3, -2));
+        assertEquals(2, lm.getMetrics().getEscalations());
+    }
+
+    /**
+     * Tuple locks let two transactions write different tuples of one page.
+     */
+    @Test public void recordLocks() throws Exception {
+        RecordId r0 = new RecordId(p0, 0);
+        RecordId r1 = new RecordId(p0, 1);
+        lm.grabRecordLock(tid1, r0, Permissions.READ_WRITE, LockManager.NO_TIMEOUT);
+        lm.grabRecordLock(tid2, r1, Permissions.READ_WRITE, LockManager.NO_TIMEOUT);
+
+        // neither may read the whole page
+        assertFalse(lm.holdsLock(tid1, p0));
+        Grabber page = grab(tid3, p0, Permissions.READ_ONLY);
+        assertFalse(page.acquired);
+
+        try {
+            lm.grabRecordLock(tid2, r0, Permissions.READ_ONLY, 50);
+            fail("expected the request to time out");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        lm.releaseLockTid(tid1);
+        lm.releaseLockTid(tid2);
+        page.join(TIMEOUT);
+        assertTrue(page.acquired);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
@@ -0,0 +1,144 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class LogBufferTest extends SimpleDbTestBase {
+    private static final int RECORD_SIZE = LogFile.INT_SIZE + 2 * LogFile.LONG_SIZE;
+
+    // a log that counts its forces
+    private static class CountingLogFile extends LogFile {
+        final AtomicInteger forces = new AtomicInteger();
+
+        CountingLogFile(File f) throws IOException {
+            super(f);
+        }
+
+        public synchronized void force() throws IOException {
+            forces.incrementAndGet();
+            super.force();
+        }
+    }
+
+    private File f;
+    private CountingLogFile log;
+    private Page page;
+
+    /**
+     * Set up initial resources for each unit test: a log of its own, not
+     * the Database's, and a page to log updates of.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        f = File.createTempFile("log", ".log");
+        f.deleteOnExit();
+        log = new CountingLogFile(f);
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        page = hf.readPage(new HeapPageId(hf.getId(), 0));
+    }
+
+    /**
+     * Records get increasing LSNs, and stay in memory until the log is
+     * flushed up to them.
+     */
+    @Test public void buffersRecords() throws Exception {
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        long begin = log.getEndLSN();
+        assertEquals(LogFile.LONG_SIZE + RECORD_SIZE, begin);
+        assertEquals(0, page.getLSN());
+
+        long lsn = log.logWrite(tid, page.getBeforeImage(), page);
+        assertEquals(begin, lsn);
+        assertEquals(lsn, page.getLSN());
+        assertTrue(log.getEndLSN() > lsn);
+        assertEquals(LogFile.LONG_SIZE, f.length());
+
+        log.flushToLSN(lsn);
+        assertEquals(1, log.forces.get());
+        assertEquals(log.getEndLSN(), f.length());
+    }
+
+    /**
+     * Flushing to an LSN a force has already covered does nothing.
+     */
+    @Test public void flushesOnlyWhenNeeded() throws Exception {
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        long first = log.logWrite(tid, page.getBeforeImage(), page);
+        long second = log.logWrite(tid, page.getBeforeImage(), page);
+        assertTrue(second > first);
+
+        log.flushToLSN(second);
+        log.flushToLSN(first);
+        log.flushToLSN(second);
+        log.flushToLSN(0);
+        assertEquals(1, log.forces.get());
+
+        long third = log.logWrite(tid, page.getBeforeImage(), page);
+        log.flushToLSN(second);
+        assertEquals(1, log.forces.get());
+        log.flushToLSN(third);
+        assertEquals(2, log.forces.get());
+    }
+
+    /**
+     * A record too large for the log buffer still reaches the log whole.
+     */
+    @Test public void largeRecords() throws Exception {
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        long bytes = 0;
+        while (bytes <= LogFile.LOG_BUFFER_SIZE) {
+            log.logWrite(tid, page.getBeforeImage(), page);
+            bytes = log.getBytesLogged(tid);
+        }
+        assertTrue(f.length() > LogFile.LOG_BUFFER_SIZE / 2);
+        log.logCommit(tid);
+        assertEquals(log.getEndLSN(), f.length());
+    }
+
+    /**
+     * Truncating the log at a checkpoint drops the head of the file, but
+     * the records that are left keep their LSNs.
+     */
+    @Test public void truncateKeepsLSNs() throws Exception {
+        // logTruncate renames its new log into place, so stay on one disk
+        File here = new File("lsntest.log");
+        here.deleteOnExit();
+        LogFile log = new LogFile(here);
+        TransactionId done = new TransactionId();
+        log.logXactionBegin(done);
+        log.logWrite(done, page.getBeforeImage(), page);
+        // as the BufferPool does once the page is on disk
+        log.pagesWritten(Collections.singletonList(page));
+        log.logCommit(done);
+        TransactionId open = new TransactionId();
+        log.logXactionBegin(open);
+        long end = log.getEndLSN();
+
+        log.logCheckpoint();
+        assertTrue(here.length() < end);
+        int checkpointSize = 3 * LogFile.INT_SIZE + 4 * LogFile.LONG_SIZE;
+        assertEquals(end + checkpointSize, log.getEndLSN());
+        assertEquals(end + checkpointSize, log.logWrite(open, page.getBeforeImage(), page));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogBufferTest.class);
+    }
+}
@@ -0,0 +1,114 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class MappedHeapFileTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private MappedHeapFile mapped;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /**
+     * Set up initial resources for each unit test: the same three-page
+     * file opened as a plain HeapFile and as a MappedHeapFile.
+     */
+    @Before
+    public void setUp() throws Exception {
+        tuples = new ArrayList<>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 1200, 1 << 16, null, tuples);
+        hf = new HeapFile(f, Utility.getTupleDesc(2));
+        mapped = new MappedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(mapped, SystemTestUtil.getUUID());
+    }
+
+    /**
+     * Pages read through the mapping are the pages HeapFile reads.
+     */
+    @Test
+    public void readPage() throws Exception {
+        assertEquals(3, mapped.numPages());
+        for (int i = 0; i < mapped.numPages(); i++) {
+            HeapPageId pid = new HeapPageId(mapped.getId(), i);
+            assertArrayEquals(hf.readPage(pid).getPageData(), mapped.readPage(pid).getPageData());
+        }
+    }
+
+    /**
+     * A scan through the BufferPool returns every tuple.
+     */
+    @Test
+    public void scan() throws Exception {
+        SystemTestUtil.matchTuples(mapped, tuples);
+    }
+
+    /**
+     * Pages appended after the file was mapped are read correctly, and a
+     * page past the end of the file reads as empty.
+     */
+    @Test
+    public void seesAppendedPages() throws Exception {
+        HeapPageId pid = new HeapPageId(mapped.getId(), 3);
+        HeapPage page = (HeapPage) mapped.readPage(pid);
+        assertFalse(page.iterator().hasNext());
+
+        // map the last region before the file grows
+        mapped.readPage(new HeapPageId(mapped.getId(), 2));
+        page.insertTuple(Utility.getHeapTuple(42, 2));
+        mapped.writePage(page);
+        assertEquals(4, mapped.numPages());
+
+        HeapPage read = (HeapPage) mapped.readPage(pid);
+        assertArrayEquals(page.getPageData(), read.getPageData());
+        assertEquals(new IntField(42), read.iterator().next().getField(0));
+    }
+
+    // writes page pid of the file with its first tuple deleted, bypassing
+    // the mapping, and returns what it wrote
+    private byte[] deleteFirst(HeapPageId pid) throws Exception {
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(mapped.getId(), pid.getPageNumber()));
+        page.deleteTuple(page.iterator().next());
+        hf.writePage(page);
+        return page.getPageData();
+    }
+
+    /**
+     * A page reads straight from the mapping until it changes. From then
+     * on it has a copy of its own, and neither it nor its before-image
+     * follows later writes of the file.
+     */
+    @Test
+    public void detachesOnChange() throws Exception {
+        HeapPageId pid = new HeapPageId(mapped.getId(), 0);
+        byte[] original = hf.readPage(pid).getPageData().clone();
+
+        HeapPage attached = (HeapPage) mapped.readPage(pid);
+        byte[] written = deleteFirst(pid);
+        assertArrayEquals(written, attached.getPageData());
+        hf.writePage(new HeapPage(pid, original));
+
+        HeapPage page = (HeapPage) mapped.readPage(pid);
+        Iterator<Tuple> it = page.iterator();
+        it.next();
+        page.deleteTuple(it.next());
+        byte[] changed = page.getPageData().clone();
+        deleteFirst(pid);
+        assertArrayEquals(changed, page.getPageData());
+        assertArrayEquals(original, page.getBeforeImage().getPageData());
+        assertEquals(new HeapPage(pid, original).getField(2, 0), page.getField(2, 0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,132 @@
+package simpledb;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageChecksumsTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test: a file of two full
+     * pages, written by HeapFileEncoder.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 2, null, null);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private HeapPageId pid(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    // flips a bit in the middle of page pgNo on disk
+    private void corrupt(int pgNo) throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(hf.getFile(), "rw")) {
+            long pos = (long) pgNo * BufferPool.getPageSize() + 1000;
+            raf.seek(pos);
+            int b = raf.read();
+            raf.seek(pos);
+            raf.write(b ^ 0x10);
+        }
+    }
+
+    /**
+     * A damaged page fails its checksum whichever way it is read; its
+     * neighbour still reads.
+     */
+    @Test public void detectsCorruption() throws Exception {
+        corrupt(1);
+        assertNotNull(hf.readPage(pid(0)));
+        try {
+            hf.readPage(pid(1));
+            fail("expected CorruptPageException");
+        } catch (CorruptPageException e) {
+            assertTrue(e.getMessage().contains("page 1 of " + hf.getFile().getName()));
+        }
+        try {
+            hf.readPages(Arrays.<PageId>asList(pid(0), pid(1)));
+            fail("expected CorruptPageException");
+        } catch (CorruptPageException e) {
+            // explicitly ignored
+        }
+        try {
+            Database.getBufferPool().getPage(tid, pid(1), Permissions.READ_ONLY);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // explicitly ignored
+        }
+
+        MappedHeapFile mapped = new MappedHeapFile(hf.getFile(), hf.getTupleDesc());
+        try {
+            mapped.readPage(pid(1));
+            fail("expected CorruptPageException");
+        } catch (CorruptPageException e) {
+            // explicitly ignored
+        }
+    }
+
+    /**
+     * A page the file ends in the middle of, as after a write that was cut
+     * short, is torn; a page wholly past the end is just empty.
+     */
+    @Test public void detectsTornPage() throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(hf.getFile(), "rw")) {
+            raf.setLength(BufferPool.getPageSize() * 3 / 2);
+        }
+        try {
+            hf.readPage(pid(1));
+            fail("expected CorruptPageException");
+        } catch (CorruptPageException e) {
+            assertTrue(e.getMessage().contains("torn"));
+        }
+        assertEquals(504, ((HeapPage) hf.readPage(pid(2))).getNumEmptySlots());
+    }
+
+    /**
+     * Pages with no checksum are not checked; writing a page records one.
+     */
+    @Test public void uncheckedUntilWritten() throws Exception {
+        File sums = new File(hf.getFile().getPath() + ".crc");
+        assertTrue(sums.delete());
+        HeapFile old = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        corrupt(1);
+        Page page = old.readPage(pid(1));
+
+        old.writePage(page);
+        assertTrue(sums.exists());
+        assertNotNull(old.readPage(pid(1)));
+        // another HeapFile on the same file sees the new checksum
+        assertNotNull(new HeapFile(hf.getFile(), hf.getTupleDesc()).readPage(pid(1)));
+        corrupt(1);
+        try {
+            old.readPage(pid(1));
+            fail("expected CorruptPageException");
+        } catch (CorruptPageException e) {
+            // explicitly ignored
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageChecksumsTest.class);
+    }
+}
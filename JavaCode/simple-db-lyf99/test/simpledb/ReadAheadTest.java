@@ -0,0 +1,149 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+    private static final int PAGES = 30;
+
+    // a CLOCK policy that remembers what the BufferPool told it
+    private static class RecordingPolicy extends ClockReplacementPolicy {
+        final Set<PageId> added = ConcurrentHashMap.newKeySet();
+        final Set<PageId> scanned = ConcurrentHashMap.newKeySet();
+
+        RecordingPolicy(int numFrames) {
+            super(numFrames);
+        }
+
+        public synchronized void pageAdded(PageId pid) {
+            super.pageAdded(pid);
+            this.added.add(pid);
+        }
+
+        public void pageScanned(PageId pid) {
+            super.pageScanned(pid);
+            this.scanned.add(pid);
+        }
+    }
+
+    private HeapFile hf;
+    private BufferPool bp;
+    private RecordingPolicy policy;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test: a file of 30 pages and
+     * a BufferPool of 50 pages, so the read-ahead window is 8 pages.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, null);
+        assertEquals(PAGES, hf.numPages());
+        policy = new RecordingPolicy(BufferPool.DEFAULT_PAGES);
+        bp = Database.resetBufferPool(new BufferPool(BufferPool.DEFAULT_PAGES, policy));
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        bp.transactionComplete(tid);
+    }
+
+    private HeapPageId pid(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    // reads tuples until one from page pgNo comes up
+    private static void scanTo(DbFileIterator it, int pgNo) throws Exception {
+        while (it.next().getRecordId().getPageId().getPageNumber() < pgNo) {
+        }
+    }
+
+    // waits up to five seconds for pid to be added to the pool
+    private void awaitAdded(PageId pid) throws InterruptedException {
+        for (int i = 0; i < 500 && !policy.added.contains(pid); i++)
+            Thread.sleep(10);
+        assertTrue(pid + " was not read ahead", policy.added.contains(pid));
+    }
+
+    /**
+     * Once a scan has read two pages in a row, the next window of pages is
+     * read into the pool, and then the next half window at a time.
+     */
+    @Test public void readsAhead() throws Exception {
+        assertEquals(8, bp.getReadAheadWindow());
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        scanTo(it, 1);
+        awaitAdded(pid(9));
+        assertFalse(policy.added.contains(pid(10)));
+
+        scanTo(it, 5);
+        awaitAdded(pid(13));
+        int count = 504 * 5 + 1;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        assertEquals(504 * PAGES, count);
+        assertTrue(policy.scanned.isEmpty());
+    }
+
+    /**
+     * With read-ahead off nothing is read ahead; a scan resistant scan
+     * reports every page it is done with.
+     */
+    @Test public void configuration() throws Exception {
+        bp.setReadAhead(0, true);
+        assertEquals(0, bp.getReadAheadWindow());
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        scanTo(it, 2);
+        Thread.sleep(100);
+        assertFalse(policy.added.contains(pid(3)));
+        while (it.hasNext())
+            it.next();
+        for (int i = 0; i < PAGES - 1; i++)
+            assertTrue(policy.scanned.contains(pid(i)));
+
+        bp.setReadAhead(100, false);
+        assertEquals(BufferPool.DEFAULT_PAGES / 4, bp.getReadAheadWindow());
+    }
+
+    /**
+     * Pages read ahead never replace a resident page, and are dropped if
+     * a page was written or discarded after they were read.
+     */
+    @Test public void neverReplacesNewerPages() throws Exception {
+        Page resident = bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        long generation = bp.generation();
+        List<Page> pages = hf.readPages(Arrays.<PageId>asList(pid(0), pid(1), pid(2)));
+
+        bp.discardPage(pid(5));
+        bp.addReadAhead(pages, generation);
+        assertFalse(policy.added.contains(pid(1)));
+
+        bp.addReadAhead(pages, bp.generation());
+        assertTrue(policy.added.contains(pid(1)));
+        assertSame(resident, bp.getPage(tid, pid(0), Permissions.READ_ONLY));
+        assertSame(pages.get(1), bp.getPage(tid, pid(1), Permissions.READ_ONLY));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,177 @@
+package simpledb;
+
+import java.io.File;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class RecoveryTest extends SimpleDbTestBase {
+    private static final int ABORT_SIZE = LogFile.INT_SIZE + 2 * LogFile.LONG_SIZE;
+
+    private HeapFile hf;
+    private HeapPageId pid0;
+    private HeapPageId pid1;
+    private byte[] original0;
+    private byte[] original1;
+    private LogFile log;
+
+    /**
+     * Set up initial resources for each unit test: a table of two pages,
+     * and the Database's log.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 600, null, null);
+        pid0 = new HeapPageId(hf.getId(), 0);
+        pid1 = new HeapPageId(hf.getId(), 1);
+        original0 = hf.readPage(pid0).getPageData();
+        original1 = hf.readPage(pid1).getPageData();
+        log = Database.getLogFile();
+    }
+
+    // logs tid's update of the page on disk that deletes one tuple, and
+    // writes the page, as the BufferPool does when it flushes a page
+    private HeapPage update(TransactionId tid, HeapPageId pid) throws Exception {
+        HeapPage before = (HeapPage) hf.readPage(pid);
+        HeapPage after = new HeapPage(pid, before.getPageData());
+        after.deleteTuple(after.iterator().next());
+        log.logWrite(tid, before, after);
+        hf.writePage(after);
+        return after;
+    }
+
+    /**
+     * Recovery undoes every loser, whichever pages they share with
+     * winners, and keeps what the winners did.
+     */
+    @Test public void undoesLosers() throws Exception {
+        TransactionId loser0 = new TransactionId();
+        TransactionId winner = new TransactionId();
+        TransactionId loser1 = new TransactionId();
+        log.logXactionBegin(loser0);
+        log.logXactionBegin(winner);
+        update(loser0, pid0);
+        update(winner, pid1);
+        HeapPage committed = update(winner, pid1);
+        log.logCommit(winner);
+        log.logXactionBegin(loser1);
+        update(loser0, pid0);
+        update(loser1, pid1);
+
+        log.recover();
+        assertArrayEquals(original0, hf.readPage(pid0).getPageData());
+        assertArrayEquals(committed.getPageData(), hf.readPage(pid1).getPageData());
+
+        // the losers are aborted now, so there is nothing left to undo
+        long length = new File("log").length();
+        log.recover();
+        assertEquals(length, new File("log").length());
+        assertArrayEquals(original0, hf.readPage(pid0).getPageData());
+    }
+
+    /**
+     * A rollback that a crash interrupted before its ABORT record is
+     * finished by recovery, not repeated: its CLRs show the work is done.
+     */
+    @Test public void finishesInterruptedRollback() throws Exception {
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        update(tid, pid0);
+        update(tid, pid1);
+        update(tid, pid0);
+        log.rollback(tid);
+        assertArrayEquals(original0, hf.readPage(pid0).getPageData());
+        assertArrayEquals(original1, hf.readPage(pid1).getPageData());
+
+        long length = new File("log").length();
+        log.recover();
+        assertEquals(length + ABORT_SIZE, new File("log").length());
+        assertArrayEquals(original0, hf.readPage(pid0).getPageData());
+        assertArrayEquals(original1, hf.readPage(pid1).getPageData());
+    }
+
+    /**
+     * Recovery redoes a winner's updates that never reached the table.
+     */
+    @Test public void redoesWinners() throws Exception {
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        HeapPage before = (HeapPage) hf.readPage(pid0);
+        HeapPage after = new HeapPage(pid0, before.getPageData());
+        after.deleteTuple(after.iterator().next());
+        log.logWrite(tid, before, after);
+        log.logCommit(tid);
+
+        log.recover();
+        assertArrayEquals(after.getPageData(), hf.readPage(pid0).getPageData());
+    }
+
+    /**
+     * A transaction that committed before a checkpoint is not listed as
+     * active by a later one, although a transaction still running keeps
+     * its BEGIN record in the log.
+     */
+    @Test public void keepsWinnersAcrossCheckpoints() throws Exception {
+        TransactionId running = new TransactionId();
+        TransactionId winner = new TransactionId();
+        log.logXactionBegin(running);
+        log.logXactionBegin(winner);
+        HeapPage committed = update(winner, pid1);
+        log.logCommit(winner);
+
+        log.logCheckpoint();
+        log.logCheckpoint();
+        log.recover();
+        assertArrayEquals(committed.getPageData(), hf.readPage(pid1).getPageData());
+    }
+
+    // the tuple in the given slot of page
+    private static Tuple slot(HeapPage page, int tupleno) {
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+            Tuple t = it.next();
+            if (t.getRecordId().getTupleNumber() == tupleno) {
+                return t;
+            }
+        }
+        throw new AssertionError("slot " + tupleno + " is empty");
+    }
+
+    /**
+     * A transaction's second flush of a page sets bytes back to their
+     * value in its before image: the header bit of a slot it emptied
+     * before the first flush and then reused. Redo patches the second
+     * record onto the first, so it has to carry those bytes too.
+     */
+    @Test public void redoesBytesSetBack() throws Exception {
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        HeapPageId pid = new HeapPageId(small.getId(), 0);
+        BufferPool bp = Database.getBufferPool();
+        Transaction t = new Transaction();
+        t.start();
+        HeapPage page = (HeapPage) bp.getPage(t.getId(), pid, Permissions.READ_WRITE);
+        bp.deleteTuple(t.getId(), slot(page, 5));
+        bp.flushPages(t.getId());
+        bp.deleteTuple(t.getId(), slot(page, 9));
+        bp.insertTuple(t.getId(), small.getId(), Utility.getHeapTuple(new int[] { -1, -1 }));
+        t.commit();
+        byte[] committed = small.readPage(pid).getPageData();
+        assertEquals(-1, ((IntField) slot((HeapPage) small.readPage(pid), 5).getField(0)).getValue());
+
+        log.recover();
+        assertArrayEquals(committed, small.readPage(pid).getPageData());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RecoveryTest.class);
+    }
+}
@@ -0,0 +1,124 @@
+package simpledb;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+    private static final ReplacementPolicy.CleanTest ALL_CLEAN = pid -> true;
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(-1, pgNo);
+    }
+
+    /**
+     * A referenced page gets a second chance before an unreferenced one.
+     */
+    @Test public void clockSecondChance() {
+        ReplacementPolicy clock = new ClockReplacementPolicy(3);
+        clock.pageAdded(pid(0));
+        clock.pageAdded(pid(1));
+        clock.pageAdded(pid(2));
+
+        // the first sweep clears every bit and comes back to page 0
+        assertEquals(pid(0), clock.chooseVictim(ALL_CLEAN));
+        clock.pageRemoved(pid(0));
+        clock.pageAdded(pid(3));
+
+        // page 1 is hit again, so page 2 goes first
+        clock.pageAccessed(pid(1));
+        assertEquals(pid(2), clock.chooseVictim(ALL_CLEAN));
+    }
+
+    /**
+     * Both policies pass over dirty pages while a clean page is available,
+     * and fall back to a dirty page when every page is dirty.
+     */
+    @Test public void preferCleanVictims() {
+        ReplacementPolicy[] policies = new ReplacementPolicy[] {
+                new ClockReplacementPolicy(4), new LruKReplacementPolicy() };
+        for (ReplacementPolicy policy : policies) {
+            for (int i = 0; i < 4; i++) {
+                policy.pageAdded(pid(i));
+            }
+            Set<PageId> dirty = new HashSet<>();
+            dirty.add(pid(0));
+            dirty.add(pid(1));
+            dirty.add(pid(2));
+            assertEquals(pid(3), policy.chooseVictim(pid -> !dirty.contains(pid)));
+
+            dirty.add(pid(3));
+            assertNotNull(policy.chooseVictim(pid -> !dirty.contains(pid)));
+        }
+    }
+
+    /**
+     * LRU-K keeps a page referenced K times over pages a scan touched once.
+     */
+    @Test public void lruKResistsScans() {
+        ReplacementPolicy lru2 = new LruKReplacementPolicy(2);
+        lru2.pageAdded(pid(0));
+        lru2.pageAccessed(pid(0));
+        for (int i = 1; i <= 3; i++) {
+            lru2.pageAdded(pid(i));
+        }
+        assertEquals(pid(1), lru2.chooseVictim(ALL_CLEAN));
+        lru2.pageRemoved(pid(1));
+        assertEquals(pid(2), lru2.chooseVictim(ALL_CLEAN));
+    }
+
+    /**
+     * The clock grows when more pages are added than it was sized for.
+     */
+    @Test public void clockGrows() {
+        ReplacementPolicy clock = new ClockReplacementPolicy(1);
+        for (int i = 0; i < 5; i++) {
+            clock.pageAdded(pid(i));
+        }
+        Set<PageId> victims = new HashSet<>();
+        for (int i = 0; i < 5; i++) {
+            PageId victim = clock.chooseVictim(ALL_CLEAN);
+            assertNotNull(victim);
+            victims.add(victim);
+            clock.pageRemoved(victim);
+        }
+        assertEquals(5, victims.size());
+        assertNull(clock.chooseVictim(ALL_CLEAN));
+    }
+
+    /**
+     * The BufferPool evicts a clean page before the page a transaction
+     * dirtied.
+     */
+    @Test public void bufferPoolKeepsDirtyPage() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        BufferPool bp = Database.resetBufferPool(2);
+        TransactionId tid = new TransactionId();
+        PageId p0 = new HeapPageId(hf.getId(), 0);
+        PageId p1 = new HeapPageId(hf.getId(), 1);
+        PageId p2 = new HeapPageId(hf.getId(), 2);
+
+        Page dirty = bp.getPage(tid, p0, Permissions.READ_WRITE);
+        dirty.markDirty(true, tid);
+        bp.getPage(tid, p1, Permissions.READ_ONLY);
+        bp.getPage(tid, p2, Permissions.READ_ONLY);
+
+        assertSame(dirty, bp.getPage(tid, p0, Permissions.READ_WRITE));
+        assertEquals(tid, dirty.isDirty());
+        bp.transactionComplete(tid, false);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
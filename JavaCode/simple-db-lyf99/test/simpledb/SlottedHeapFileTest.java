@@ -0,0 +1,114 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedHeapFileTest extends SimpleDbTestBase {
+    private SlottedHeapFile sf;
+    private TupleDesc td;
+
+    /**
+     * Set up initial resources for each unit test: an empty slotted file
+     * of (int, string) tuples.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        sf = new SlottedHeapFile(f, td);
+        Database.getCatalog().addTable(sf, SystemTestUtil.getUUID());
+    }
+
+    private Tuple tuple(int i) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField("name " + i, Type.STRING_LEN));
+        return t;
+    }
+
+    private int count(TransactionId tid) throws Exception {
+        DbFileIterator it = sf.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            assertEquals(new StringField("name " + n, Type.STRING_LEN), it.next().getField(1));
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * Tuples inserted through the BufferPool are scanned back, from far
+     * fewer pages than a HeapFile would need, and deletes free room that
+     * later inserts use.
+     */
+    @Test public void insertScanDelete() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        int n = 2000;
+        for (int i = 0; i < n; i++)
+            Database.getBufferPool().insertTuple(t.getId(), sf.getId(), tuple(i));
+        t.commit();
+
+        int fixed = BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+        assertTrue(sf.numPages() * fixed * 4 < n);
+        int pages = sf.numPages();
+
+        t = new Transaction();
+        t.start();
+        assertEquals(n, count(t.getId()));
+        ArrayList<Tuple> deleted = new ArrayList<Tuple>();
+        DbFileIterator it = sf.iterator(t.getId());
+        it.open();
+        for (int i = 0; i < 100; i++)
+            deleted.add(it.next());
+        it.close();
+        for (Tuple d : deleted)
+            Database.getBufferPool().deleteTuple(t.getId(), d);
+        for (int i = 0; i < 100; i++)
+            Database.getBufferPool().insertTuple(t.getId(), sf.getId(), tuple(i));
+        t.commit();
+        assertEquals(pages, sf.numPages());
+    }
+
+    /**
+     * Slotted pages go through the log like HeapPages: an aborted insert
+     * whose page was already written is rolled back from its before-image.
+     */
+    @Test public void abortRollsBack() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), sf.getId(), tuple(0));
+        t.commit();
+
+        t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), sf.getId(), tuple(1));
+        Database.getBufferPool().flushAllPages();
+        t.abort();
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        t = new Transaction();
+        t.start();
+        assertEquals(1, count(t.getId()));
+        t.commit();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapFileTest.class);
+    }
+}
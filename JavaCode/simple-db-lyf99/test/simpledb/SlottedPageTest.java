@@ -0,0 +1,165 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+    private TupleDesc td;
+
+    /**
+     * Set up initial resources for each unit test: a table of
+     * (int, string) tuples.
+     */
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        this.td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    private static ArrayList<Tuple> tuples(SlottedPage page) {
+        ArrayList<Tuple> list = new ArrayList<Tuple>();
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); )
+            list.add(it.next());
+        return list;
+    }
+
+    /**
+     * Short strings take only the bytes they need, so the page holds many
+     * more tuples than a HeapPage of the same TupleDesc.
+     */
+    @Test public void insertUntilFull() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        assertTrue(page.getFreeSpace() > 0);
+        int n = 0;
+        for (Tuple t = tuple(n, "author " + n); page.hasRoomFor(t); t = tuple(n, "author " + n)) {
+            page.insertTuple(t);
+            assertEquals(n, t.getRecordId().getTupleNumber());
+            n++;
+        }
+        int fixed = BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+        assertTrue(n > 4 * fixed);
+
+        ArrayList<Tuple> read = tuples(page);
+        assertEquals(n, read.size());
+        for (int i = 0; i < n; i++)
+            assertTrue(TestUtil.compareTuples(tuple(i, "author " + i), read.get(i)));
+
+        try {
+            page.insertTuple(tuple(n, "author " + n));
+            fail("page should be full; expected DbException");
+        } catch (DbException e) {
+            // explicitly ignored
+        }
+    }
+
+    /**
+     * Deleting a tuple closes its gap, keeps the other RecordIds, and
+     * frees its slot for the next insert.
+     */
+    @Test public void deleteCompacts() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        int empty = page.getFreeSpace();
+        Tuple a = tuple(1, "a");
+        Tuple b = tuple(2, "a much longer string");
+        Tuple c = tuple(3, "c");
+        page.insertTuple(a);
+        page.insertTuple(b);
+        page.insertTuple(c);
+        int free = page.getFreeSpace();
+
+        page.deleteTuple(b);
+        assertEquals(free + 4 + 2 + 20, page.getFreeSpace());
+        ArrayList<Tuple> read = tuples(page);
+        assertEquals(2, read.size());
+        assertTrue(TestUtil.compareTuples(a, read.get(0)));
+        assertEquals(0, read.get(0).getRecordId().getTupleNumber());
+        assertTrue(TestUtil.compareTuples(c, read.get(1)));
+        assertEquals(2, read.get(1).getRecordId().getTupleNumber());
+
+        Tuple d = tuple(4, "d");
+        page.insertTuple(d);
+        assertEquals(1, d.getRecordId().getTupleNumber());
+
+        page.deleteTuple(read.get(1));
+        page.deleteTuple(read.get(0));
+        page.deleteTuple(d);
+        assertEquals(empty, page.getFreeSpace());
+        assertEquals(0, page.getNumSlots());
+        assertArrayEquals(SlottedPage.createEmptyPageData(), page.getPageData());
+
+        try {
+            page.deleteTuple(d);
+            fail("slot should be empty; expected DbException");
+        } catch (DbException e) {
+            // explicitly ignored
+        }
+    }
+
+    /**
+     * getPageData reads back as the same page, and the before-image does
+     * not see later changes.
+     */
+    @Test public void pageData() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        for (int i = 0; i < 10; i++)
+            page.insertTuple(tuple(i, "" + i * i));
+        page.setBeforeImage();
+        page.deleteTuple(tuples(page).get(3));
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        assertEquals(page.getFreeSpace(), copy.getFreeSpace());
+        ArrayList<Tuple> expected = tuples(page);
+        ArrayList<Tuple> actual = tuples(copy);
+        assertEquals(9, actual.size());
+        for (int i = 0; i < expected.size(); i++)
+            assertTrue(TestUtil.compareTuples(expected.get(i), actual.get(i)));
+        assertEquals(10, tuples(page.getBeforeImage()).size());
+    }
+
+    /**
+     * The page's bytes and before-image are built again only after the
+     * page or its before-image has changed.
+     */
+    @Test public void cachesImages() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        page.insertTuple(tuple(1, "one"));
+        byte[] data = page.getPageData();
+        assertSame(data, page.getPageData());
+        SlottedPage before = page.getBeforeImage();
+        assertSame(before, page.getBeforeImage());
+
+        page.insertTuple(tuple(2, "two"));
+        assertNotSame(data, page.getPageData());
+        assertEquals(1, tuples(new SlottedPage(pid, data)).size());
+        assertSame(before, page.getBeforeImage());
+        page.setBeforeImage();
+        assertNotSame(before, page.getBeforeImage());
+        assertEquals(2, tuples(page.getBeforeImage()).size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
@@ -0,0 +1,54 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TypeTest extends SimpleDbTestBase {
+
+    // a STRING_TYPE field whose length prefix is len
+    private static ByteBuffer string(int len) {
+        ByteBuffer buf = ByteBuffer.allocate(Type.STRING_TYPE.getLen());
+        buf.putInt(0, len);
+        return buf;
+    }
+
+    /**
+     * A string parses from its length prefix and then skips the rest of
+     * the field.
+     */
+    @Test public void parseString() throws Exception {
+        ByteBuffer buf = string(2);
+        buf.put(4, (byte) 'h').put(5, (byte) 'i');
+        assertEquals(new StringField("hi", Type.STRING_LEN), Type.STRING_TYPE.parse(buf));
+        assertEquals(Type.STRING_TYPE.getLen(), buf.position());
+    }
+
+    /**
+     * A length prefix that is negative or longer than STRING_LEN is a
+     * parse error.
+     */
+    @Test public void parseBadLength() throws Exception {
+        for (int len : new int[] { -1, Integer.MIN_VALUE, Type.STRING_LEN + 1, Integer.MAX_VALUE }) {
+            try {
+                Type.STRING_TYPE.parse(string(len));
+                fail("length " + len + " should not parse");
+            } catch (ParseException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TypeTest.class);
+    }
+}
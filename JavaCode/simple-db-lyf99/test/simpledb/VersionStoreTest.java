@@ -0,0 +1,159 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class VersionStoreTest extends TestUtil.CreateHeapFile {
+    private BufferPool bp;
+
+    /** A page that is nothing but its id and a version number. */
+    private static class FakePage implements Page {
+        private final PageId pid;
+        final int version;
+
+        FakePage(PageId pid, int version) {
+            this.pid = pid;
+            this.version = version;
+        }
+
+        public PageId getId() { return pid; }
+        public TransactionId isDirty() { return null; }
+        public void markDirty(boolean dirty, TransactionId tid) { }
+        public byte[] getPageData() { return new byte[0]; }
+        public Page getBeforeImage() { return this; }
+        public void setBeforeImage() { }
+    }
+
+    /**
+     * Set up initial resources for each unit test: a table with ten
+     * committed tuples and snapshot isolation on.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setSnapshotIsolation(true);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 10; ++i) {
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        bp.transactionComplete(tid);
+    }
+
+    private int count(TransactionId tid) throws Exception {
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * A snapshot reader neither waits for a writer's locks nor sees its
+     * changes, before or after the writer commits; a later snapshot does.
+     */
+    @Test public void snapshotIgnoresWriter() throws Exception {
+        TransactionId writer = new TransactionId();
+        DbFileIterator it = empty.iterator(writer);
+        it.open();
+        bp.deleteTuple(writer, it.next());
+        it.close();
+        bp.insertTuple(writer, empty.getId(), Utility.getHeapTuple(10, 2));
+        bp.insertTuple(writer, empty.getId(), Utility.getHeapTuple(11, 2));
+
+        Transaction reader = new Transaction(true);
+        reader.start();
+        assertEquals(10, count(reader.getId()));
+        assertFalse(bp.holdsLock(reader.getId(), new HeapPageId(empty.getId(), 0)));
+
+        bp.transactionComplete(writer);
+        assertEquals(10, count(reader.getId()));
+
+        Transaction later = new Transaction(true);
+        later.start();
+        assertEquals(11, count(later.getId()));
+        later.commit();
+        reader.commit();
+    }
+
+    /**
+     * A snapshot reader never sees the changes of a writer that aborts.
+     */
+    @Test public void abortedWriterInvisible() throws Exception {
+        Transaction reader = new Transaction(true);
+        reader.start();
+
+        TransactionId writer = new TransactionId();
+        bp.insertTuple(writer, empty.getId(), Utility.getHeapTuple(10, 2));
+        assertEquals(10, count(reader.getId()));
+        bp.transactionComplete(writer, false);
+        assertEquals(10, count(reader.getId()));
+        reader.commit();
+    }
+
+    /**
+     * A read-only transaction reading from a snapshot cannot write.
+     */
+    @Test(expected = DbException.class) public void snapshotCannotWrite() throws Exception {
+        Transaction reader = new Transaction(true);
+        reader.start();
+        try {
+            bp.insertTuple(reader.getId(), empty.getId(), Utility.getHeapTuple(10, 2));
+        } finally {
+            reader.commit();
+        }
+    }
+
+    /**
+     * Versions are kept exactly as long as some snapshot can see them, and
+     * a page nobody is writing has no chain.
+     */
+    @Test public void pruning() throws Exception {
+        PageId pid = new HeapPageId(-1, 0);
+        Map<PageId, Page> disk = new HashMap<>();
+        disk.put(pid, new FakePage(pid, 0));
+        VersionStore store = new VersionStore(disk::get);
+
+        long s = store.beginSnapshot();
+        assertEquals(0, ((FakePage) store.read(pid, s)).version);
+        store.endSnapshot(s);
+        assertEquals(0, store.size());
+
+        long s0 = store.beginSnapshot();
+        store.preserve(disk.get(pid));
+        disk.put(pid, new FakePage(pid, 1));
+        store.commit(Collections.singletonList(disk.get(pid)));
+        long s1 = store.beginSnapshot();
+        store.preserve(disk.get(pid));
+        disk.put(pid, new FakePage(pid, 2));
+        store.commit(Collections.singletonList(disk.get(pid)));
+
+        assertEquals(1, store.size());
+        assertEquals(0, ((FakePage) store.read(pid, s0)).version);
+        assertEquals(1, ((FakePage) store.read(pid, s1)).version);
+        long s2 = store.beginSnapshot();
+        assertEquals(2, ((FakePage) store.read(pid, s2)).version);
+        store.endSnapshot(s2);
+
+        store.endSnapshot(s0);
+        assertEquals(1, ((FakePage) store.read(pid, s1)).version);
+        store.endSnapshot(s1);
+        assertEquals(0, store.size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(VersionStoreTest.class);
+    }
+}
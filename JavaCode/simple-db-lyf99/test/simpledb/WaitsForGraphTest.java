@@ -0,0 +1,65 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class WaitsForGraphTest extends SimpleDbTestBase {
+    private static HashSet<TransactionId> set(TransactionId... tids) {
+        return new HashSet<>(Arrays.asList(tids));
+    }
+
+    /**
+     * The edge that closes a cycle reports the cycle, starting at the
+     * transaction that added it.
+     */
+    @Test public void newEdgeClosesCycle() {
+        WaitsForGraph g = new WaitsForGraph();
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+
+        assertNull(g.setEdges(t1, set(t2)));
+        assertNull(g.setEdges(t2, set(t3)));
+        List<TransactionId> cycle = g.setEdges(t3, set(t1));
+        assertEquals(Arrays.asList(t3, t1, t2), cycle);
+    }
+
+    /**
+     * Replacing or removing edges breaks a cycle.
+     */
+    @Test public void removedEdgesBreakCycles() {
+        WaitsForGraph g = new WaitsForGraph();
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+
+        assertNull(g.setEdges(t1, set(t2)));
+        assertNull(g.setEdges(t1, set(t3)));
+        assertNull(g.setEdges(t2, set(t1)));
+        assertEquals(set(t3), g.blockers(t1));
+
+        // t3 finishes; t1 no longer waits for it
+        g.removeTransaction(t3);
+        assertEquals(Collections.emptySet(), g.blockers(t1));
+        assertNull(g.setEdges(t3, set(t2)));
+
+        g.removeEdges(t2);
+        assertNull(g.setEdges(t1, set(t2, t3)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(WaitsForGraphTest.class);
+    }
+}
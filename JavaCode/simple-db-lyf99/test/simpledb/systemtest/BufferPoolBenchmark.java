@@ -0,0 +1,173 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the page replacement policies on a scan-heavy workload: most
+ * references go to a small hot set of pages, the rest come from a sequential
+ * scan that keeps walking the whole table. Reports the hit ratio and the
+ * average BufferPool.getPage latency of CLOCK, LRU-2 and the FIFO deque the
+ * BufferPool used before replacement policies existed.
+ * <p>
+ * Not part of the test or systemtest targets; run it with "ant benchmark".
+ */
+public class BufferPoolBenchmark extends SimpleDbTestBase {
+    private static final int TABLE_PAGES = 400;
+    private static final int HOT_PAGES = 40;
+    private static final int POOL_PAGES = 100;
+    private static final int ACCESSES = 5000;
+    private static final double HOT_FRACTION = 0.8;
+
+    private static final int TRACE_POOL_PAGES = 4096;
+    private static final int TRACE_TABLE_PAGES = 40000;
+    private static final int TRACE_ACCESSES = 200000;
+
+    /** The replacement order of the old BufferPool: a deque with O(n) contains. */
+    private static class DequePolicy implements ReplacementPolicy {
+        private final Deque<PageId> pids = new LinkedList<>();
+
+        public synchronized void pageAdded(PageId pid) {
+            if (!pids.contains(pid)) {
+                pids.push(pid);
+            }
+        }
+
+        public synchronized void pageAccessed(PageId pid) {
+            if (!pids.contains(pid)) {
+                pids.push(pid);
+            }
+        }
+
+        public synchronized void pageRemoved(PageId pid) {
+            pids.remove(pid);
+        }
+
+        public synchronized PageId chooseVictim(CleanTest clean) {
+            return pids.peekLast();
+        }
+    }
+
+    /** Counts the number of readPage operations. */
+    private static class InstrumentedHeapFile extends HeapFile {
+        int readCount = 0;
+
+        InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+    }
+
+    // page numbers of a hot-set-plus-scan workload over tablePages pages
+    private static int[] makeTrace(int tablePages, int hotPages, int accesses) {
+        Random r = new Random(444);
+        int[] trace = new int[accesses];
+        int scanPos = hotPages;
+        for (int i = 0; i < accesses; i++) {
+            if (r.nextDouble() < HOT_FRACTION) {
+                trace[i] = r.nextInt(hotPages);
+            } else {
+                trace[i] = scanPos;
+                scanPos = scanPos + 1 < tablePages ? scanPos + 1 : hotPages;
+            }
+        }
+        return trace;
+    }
+
+    private static ReplacementPolicy[] policies(int numPages) {
+        return new ReplacementPolicy[] {
+                new DequePolicy(),
+                new ClockReplacementPolicy(numPages),
+                new LruKReplacementPolicy(2) };
+    }
+
+    private static final String[] NAMES = new String[] { "deque", "CLOCK", "LRU-2" };
+
+    /**
+     * Runs the workload through BufferPool.getPage for every policy.
+     */
+    @Test public void getPageHitRatioAndLatency() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * TABLE_PAGES,
+                1000, null, new ArrayList<ArrayList<Integer>>());
+        InstrumentedHeapFile table = new InstrumentedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        int[] trace = makeTrace(TABLE_PAGES, HOT_PAGES, ACCESSES);
+
+        double[] hitRatios = new double[NAMES.length];
+        ReplacementPolicy[] policies = policies(POOL_PAGES);
+        for (int p = 0; p < policies.length; p++) {
+            BufferPool bp = new BufferPool(POOL_PAGES, policies[p]);
+            TransactionId tid = new TransactionId();
+            table.readCount = 0;
+            long start = System.nanoTime();
+            for (int pgNo : trace) {
+                bp.getPage(tid, new HeapPageId(table.getId(), pgNo), Permissions.READ_ONLY);
+            }
+            long elapsed = System.nanoTime() - start;
+            bp.transactionComplete(tid);
+
+            hitRatios[p] = 1.0 - (double) table.readCount / trace.length;
+            System.out.printf("%-6s getPage: hit ratio %.3f, %d ns per call%n",
+                    NAMES[p], hitRatios[p], elapsed / trace.length);
+        }
+        assertTrue(hitRatios[1] >= hitRatios[0]);
+        assertTrue(hitRatios[2] >= hitRatios[0]);
+    }
+
+    /**
+     * Drives the policies alone with a large pool, so the cost of their own
+     * bookkeeping is not hidden behind page reads and locking.
+     */
+    @Test public void policyBookkeeping() {
+        int[] trace = makeTrace(TRACE_TABLE_PAGES, TRACE_POOL_PAGES / 2, TRACE_ACCESSES);
+        ReplacementPolicy.CleanTest allClean = pid -> true;
+
+        ReplacementPolicy[] policies = policies(TRACE_POOL_PAGES);
+        for (int p = 0; p < policies.length; p++) {
+            ReplacementPolicy policy = policies[p];
+            Set<PageId> resident = new HashSet<>();
+            int hits = 0;
+            long start = System.nanoTime();
+            for (int pgNo : trace) {
+                PageId pid = new HeapPageId(0, pgNo);
+                if (resident.contains(pid)) {
+                    policy.pageAccessed(pid);
+                    hits++;
+                    continue;
+                }
+                if (resident.size() >= TRACE_POOL_PAGES) {
+                    PageId victim = policy.chooseVictim(allClean);
+                    policy.pageRemoved(victim);
+                    resident.remove(victim);
+                }
+                policy.pageAdded(pid);
+                resident.add(pid);
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%-6s policy only: hit ratio %.3f, %d ns per reference%n",
+                    NAMES[p], (double) hits / trace.length, elapsed / trace.length);
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BufferPoolBenchmark.class);
+    }
+}
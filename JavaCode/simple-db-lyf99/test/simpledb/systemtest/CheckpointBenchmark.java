@@ -0,0 +1,83 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Takes a checkpoint while a transaction has a thousand dirty pages in the
+ * pool and a reader keeps missing the cache on another table. Reports how
+ * long the checkpoint took and the longest the reader waited for a page
+ * meanwhile.
+ * <p>
+ * Not part of the test or systemtest targets; run it with "ant benchmark".
+ */
+public class CheckpointBenchmark extends SimpleDbTestBase {
+    private static final int DIRTY_PAGES = 1000;
+    private static final int READER_PAGES = 400;
+
+    @Test public void checkpointStall() throws Exception {
+        HeapFile written = SystemTestUtil.createRandomHeapFile(2, DIRTY_PAGES * 504, null, null);
+        HeapFile read = SystemTestUtil.createRandomHeapFile(2, READER_PAGES * 504, null, null);
+        BufferPool bp = Database.resetBufferPool(DIRTY_PAGES + READER_PAGES / 4);
+
+        TransactionId writer = new TransactionId();
+        Database.getLogFile().logXactionBegin(writer);
+        for (int i = 0; i < DIRTY_PAGES; i++) {
+            HeapPageId pid = new HeapPageId(written.getId(), i);
+            Iterator<Tuple> it = ((HeapPage) bp.getPage(writer, pid, Permissions.READ_WRITE)).iterator();
+            bp.deleteTuple(writer, it.next());
+        }
+
+        TransactionId reader = new TransactionId();
+        List<Long> waits = new ArrayList<Long>();
+        Thread readerThread = new Thread(() -> {
+            try {
+                for (int i = 0; !Thread.currentThread().isInterrupted(); i = (i + 1) % READER_PAGES) {
+                    long begin = System.nanoTime();
+                    bp.getPage(reader, new HeapPageId(read.getId(), i), Permissions.READ_ONLY);
+                    long wait = System.nanoTime() - begin;
+                    synchronized (waits) {
+                        waits.add(wait);
+                    }
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        readerThread.start();
+        Thread.sleep(200);
+        synchronized (waits) {
+            waits.clear();
+        }
+
+        long start = System.nanoTime();
+        Database.getLogFile().logCheckpoint();
+        double millis = (System.nanoTime() - start) / 1e6;
+        long longest;
+        int reads;
+        synchronized (waits) {
+            longest = waits.isEmpty() ? 0 : waits.stream().mapToLong(Long::longValue).max().getAsLong();
+            reads = waits.size();
+        }
+        readerThread.interrupt();
+        readerThread.join();
+
+        System.out.printf("checkpoint with %d dirty pages: %.1f ms, %d reads meanwhile, longest read %.1f ms%n",
+                DIRTY_PAGES, millis, reads, longest / 1e6);
+        assertTrue(millis > 0);
+        bp.transactionComplete(reader);
+        bp.transactionComplete(writer);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(CheckpointBenchmark.class);
+    }
+}
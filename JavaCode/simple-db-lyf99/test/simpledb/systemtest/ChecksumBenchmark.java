@@ -0,0 +1,89 @@
+package simpledb.systemtest;
+
+import java.util.zip.CRC32C;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Times HeapFile.readPage, which checks every page it reads against its
+ * CRC32C, and the CRC32C of a page on its own, with 4 KB and 64 KB pages
+ * of two-column tuples from the operating system's page cache. The
+ * checksum is reported as a share of the read; it should stay a small one
+ * for checksums to stay on.
+ * <p>
+ * Not part of the test or systemtest targets; run it with "ant benchmark".
+ */
+public class ChecksumBenchmark extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    private static final int PAGES = 16;
+    private static final long NANOS = 1000000000L;
+
+    /** The largest share of a page read we accept for its checksum. */
+    private static final double MAX_OVERHEAD = 0.25;
+
+    @After public void tearDown() {
+        BufferPool.resetPageSize();
+    }
+
+    @Test public void smallPages() throws Exception {
+        run(4096);
+    }
+
+    @Test public void largePages() throws Exception {
+        run(65536);
+    }
+
+    private static void run(int pageSize) throws Exception {
+        BufferPool.setPageSize(pageSize);
+        int tuples = pageSize * 8 / (COLUMNS * 32 + 1) * PAGES;
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(COLUMNS, tuples, null, null);
+        assertEquals(PAGES, hf.numPages());
+        byte[] data = hf.readPage(new HeapPageId(hf.getId(), 0)).getPageData();
+
+        int[] next = { 0 };
+        double read = time(pageSize, "readPage", () -> {
+            hf.readPage(new HeapPageId(hf.getId(), next[0]++ % PAGES));
+        });
+        double crc = time(pageSize, "CRC32C", () -> {
+            CRC32C c = new CRC32C();
+            c.update(data, 0, data.length);
+            c.getValue();
+        });
+        System.out.printf("%d KB pages, checksum overhead: %.1f%%%n",
+                pageSize >> 10, 100 * crc / read);
+        assertTrue(crc / read < MAX_OVERHEAD);
+    }
+
+    private interface Op {
+        void run() throws Exception;
+    }
+
+    // runs op for a second to warm up, then for a second more, and reports
+    // and returns the time per run of the second
+    private static double time(int pageSize, String name, Op op) throws Exception {
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < NANOS)
+            op.run();
+        long runs = 0;
+        start = System.nanoTime();
+        long elapsed;
+        do {
+            op.run();
+            runs++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < NANOS);
+        double perRun = (double) elapsed / runs;
+        System.out.printf("%d KB pages, %s: %.0f ns/page%n", pageSize >> 10, name, perRun);
+        return perRun;
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ChecksumBenchmark.class);
+    }
+}
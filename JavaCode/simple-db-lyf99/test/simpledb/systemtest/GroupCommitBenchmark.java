@@ -0,0 +1,91 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures commit throughput and latency with many threads committing at
+ * once to a log of their own: with a force per commit (a batch size of
+ * 1, which is how logCommit used to work), with the default group commit,
+ * and with a batch that waits a millisecond to fill. Reports commits per
+ * second and the 50th, 90th and 99th percentile of logCommit's latency.
+ * <p>
+ * Not part of the test or systemtest targets; run it with "ant benchmark".
+ */
+public class GroupCommitBenchmark extends SimpleDbTestBase {
+    private static final int THREADS = 16;
+    private static final int COMMITS_PER_THREAD = 200;
+
+    @Test public void commitThroughput() throws Exception {
+        double single = run("force per commit", 0, 1);
+        double group = run("group commit", LogFile.DEFAULT_COMMIT_DELAY_MICROS, LogFile.DEFAULT_COMMIT_BATCH);
+        run("group commit, 1 ms delay", 1000, LogFile.DEFAULT_COMMIT_BATCH);
+        assertTrue(group > single / 2);
+    }
+
+    // returns commits per second
+    private static double run(String name, long delayMicros, int batchSize) throws Exception {
+        File f = File.createTempFile("log", ".log");
+        f.deleteOnExit();
+        LogFile log = new LogFile(f);
+        log.setGroupCommit(delayMicros, batchSize);
+
+        long[] latencies = new long[THREADS * COMMITS_PER_THREAD];
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        List<Throwable> errors = new ArrayList<Throwable>();
+        for (int i = 0; i < THREADS; i++) {
+            int first = i * COMMITS_PER_THREAD;
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int j = 0; j < COMMITS_PER_THREAD; j++) {
+                        TransactionId tid = new TransactionId();
+                        log.logXactionBegin(tid);
+                        long begin = System.nanoTime();
+                        log.logCommit(tid);
+                        latencies[first + j] = System.nanoTime() - begin;
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread t : threads)
+            t.join();
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        assertTrue(errors.toString(), errors.isEmpty());
+
+        Arrays.sort(latencies);
+        double perSecond = latencies.length / seconds;
+        System.out.printf("%s: %.0f commits/s, latency p50 %d us, p90 %d us, p99 %d us%n",
+                name, perSecond, percentile(latencies, 50), percentile(latencies, 90),
+                percentile(latencies, 99));
+        return perSecond;
+    }
+
+    // the pth percentile of the sorted latencies, in microseconds
+    private static long percentile(long[] sorted, int p) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * p / 100)] / 1000;
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(GroupCommitBenchmark.class);
+    }
+}
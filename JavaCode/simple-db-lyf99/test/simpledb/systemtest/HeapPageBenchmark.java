@@ -0,0 +1,91 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.Iterator;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Times iterating over a full HeapPage and filling an empty one, with 4 KB
+ * and 64 KB pages of two-column tuples, the operations that go through the
+ * header bitmap. Each is repeated for about a second after a warm-up, and
+ * the time per tuple is reported.
+ * <p>
+ * Not part of the test or systemtest targets; run it with "ant benchmark".
+ */
+public class HeapPageBenchmark extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    private static final long NANOS = 1000000000L;
+
+    @After public void tearDown() {
+        BufferPool.resetPageSize();
+    }
+
+    @Test public void smallPages() throws Exception {
+        run(4096);
+    }
+
+    @Test public void largePages() throws Exception {
+        run(65536);
+    }
+
+    private static void run(int pageSize) throws Exception {
+        BufferPool.setPageSize(pageSize);
+        File f = File.createTempFile("page", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = Utility.createEmptyHeapFile(f.getAbsolutePath(), COLUMNS);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage full = fill(new HeapPage(pid, HeapPage.createEmptyPageData()));
+        // decode every tuple once, as a page in the BufferPool would have
+        int tuples = iterate(full);
+
+        time(pageSize, "iterate", tuples, () -> assertEquals(tuples, iterate(full)));
+        time(pageSize, "insert", tuples, () -> fill(new HeapPage(pid, HeapPage.createEmptyPageData())));
+    }
+
+    private interface Op {
+        void run() throws Exception;
+    }
+
+    // runs op for a second to warm up, then for a second more, and reports
+    // the time per tuple of the second
+    private static void time(int pageSize, String name, int tuples, Op op) throws Exception {
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < NANOS)
+            op.run();
+        long runs = 0;
+        start = System.nanoTime();
+        long elapsed;
+        do {
+            op.run();
+            runs++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < NANOS);
+        System.out.printf("%d KB pages, %s: %.1f ns/tuple%n",
+                pageSize >> 10, name, (double) elapsed / (runs * tuples));
+    }
+
+    private static int iterate(HeapPage page) {
+        int count = 0;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); it.next())
+            count++;
+        return count;
+    }
+
+    private static HeapPage fill(HeapPage page) throws DbException {
+        TupleDesc td = Utility.getTupleDesc(COLUMNS);
+        while (page.getNumEmptySlots() > 0)
+            page.insertTuple(new Tuple(td));
+        return page;
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(HeapPageBenchmark.class);
+    }
+}
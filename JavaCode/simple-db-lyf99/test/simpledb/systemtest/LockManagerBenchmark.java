@@ -0,0 +1,146 @@
+package simpledb.systemtest;
+
+import java.util.concurrent.CyclicBarrier;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs concurrent transactions against the LockManager alone, the way
+ * TransactionTest runs them against the whole database: every thread waits
+ * on a barrier, then runs a fixed number of transactions that each lock a
+ * few pages and release them at commit. Reports transactions per second for
+ * 1, 2, 4 and 8 threads, once with every thread on its own pages (which
+ * should scale with the number of cores) and once with every thread
+ * writing the same few pages (which exercises the wait queues and
+ * deadlock handling, under each {@link LockManager.DeadlockPolicy}). Also
+ * times a single transaction reading every page of a large table, with and
+ * without lock escalation.
+ * <p>
+ * Not part of the test or systemtest targets; run it with "ant benchmark".
+ */
+public class LockManagerBenchmark extends SimpleDbTestBase {
+    private static final int[] THREADS = new int[] { 1, 2, 4, 8 };
+    private static final int TRANSACTIONS = 20000;
+    private static final int PAGES_PER_TRANSACTION = 8;
+    private static final int HOT_PAGES = 4;
+    private static final int TIMEOUT_MILLIS = 10 * 60 * 1000;
+    private static final int SCAN_PAGES = 200000;
+
+    private static class Locker extends Thread {
+        private final LockManager lm;
+        private final int tableId;
+        private final int transactions;
+        private final int pages;
+        private final CyclicBarrier start;
+        Throwable exception = null;
+        int aborts = 0;
+
+        Locker(LockManager lm, int tableId, int transactions, int pages, CyclicBarrier start) {
+            this.lm = lm;
+            this.tableId = tableId;
+            this.transactions = transactions;
+            this.pages = pages;
+            this.start = start;
+        }
+
+        public void run() {
+            try {
+                start.await();
+                int done = 0;
+                while (done < transactions) {
+                    TransactionId tid = new TransactionId();
+                    try {
+                        for (int i = 0; i < PAGES_PER_TRANSACTION; i++) {
+                            PageId pid = new HeapPageId(tableId, i % pages);
+                            lm.grabLock(tid, pid, Permissions.READ_ONLY);
+                            lm.grabLock(tid, pid, Permissions.READ_WRITE);
+                        }
+                        done++;
+                    } catch (TransactionAbortedException e) {
+                        aborts++;
+                    } finally {
+                        lm.releaseLockTid(tid);
+                    }
+                }
+            } catch (Throwable e) {
+                exception = e;
+            }
+        }
+    }
+
+    // returns transactions per second
+    private static double run(int threads, boolean shared, LockManager.DeadlockPolicy policy)
+            throws Exception {
+        LockManager lm = new LockManager(policy, LockManager.VictimPolicy.REQUESTER);
+        CyclicBarrier start = new CyclicBarrier(threads + 1);
+        Locker[] lockers = new Locker[threads];
+        int perThread = TRANSACTIONS / threads;
+        for (int i = 0; i < threads; i++) {
+            lockers[i] = shared
+                    ? new Locker(lm, 0, perThread, HOT_PAGES, start)
+                    : new Locker(lm, i, perThread, PAGES_PER_TRANSACTION, start);
+            lockers[i].start();
+        }
+        start.await();
+        long begin = System.nanoTime();
+        int aborts = 0;
+        for (Locker locker : lockers) {
+            locker.join(TIMEOUT_MILLIS);
+            assertFalse("Timed out waiting for transactions to complete", locker.isAlive());
+            if (locker.exception != null) {
+                throw new RuntimeException("Child thread threw an exception.", locker.exception);
+            }
+            aborts += locker.aborts;
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        double rate = perThread * threads / seconds;
+        System.out.printf("%s pages, %-10s %d threads: %.0f transactions/s, %d aborts%n",
+                shared ? "shared  " : "disjoint", policy, threads, rate, aborts);
+        if (shared) {
+            System.out.println("  " + lm.getMetrics());
+        }
+        return rate;
+    }
+
+    @Test public void disjointPages() throws Exception {
+        run(1, false, LockManager.DeadlockPolicy.DETECT);  // warm up
+        for (int threads : THREADS) {
+            assertTrue(run(threads, false, LockManager.DeadlockPolicy.DETECT) > 0);
+        }
+    }
+
+    @Test public void sharedPages() throws Exception {
+        run(1, true, LockManager.DeadlockPolicy.DETECT);  // warm up
+        for (LockManager.DeadlockPolicy policy : LockManager.DeadlockPolicy.values()) {
+            for (int threads : THREADS) {
+                assertTrue(run(threads, true, policy) > 0);
+            }
+        }
+    }
+
+    @Test public void largeScan() throws Exception {
+        for (int threshold : new int[] { Integer.MAX_VALUE, LockManager.DEFAULT_ESCALATION_THRESHOLD }) {
+            LockManager lm = new LockManager();
+            lm.setEscalationThreshold(threshold);
+            TransactionId tid = new TransactionId();
+            long begin = System.nanoTime();
+            for (int i = 0; i < SCAN_PAGES; i++) {
+                lm.grabLock(tid, new HeapPageId(0, i), Permissions.READ_ONLY);
+            }
+            lm.releaseLockTid(tid);
+            double seconds = (System.nanoTime() - begin) / 1e9;
+            System.out.printf("scan of %d pages, escalation %s: %.0f pages/s, %d locks granted%n",
+                    SCAN_PAGES, threshold == Integer.MAX_VALUE ? "off" : "at " + threshold,
+                    SCAN_PAGES / seconds, lm.getMetrics().getGrants());
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(LockManagerBenchmark.class);
+    }
+}
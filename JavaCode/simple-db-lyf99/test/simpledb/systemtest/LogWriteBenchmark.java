@@ -0,0 +1,60 @@
+package simpledb.systemtest;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Times appending update records of a 4 KB page that gained one tuple to a
+ * log of its own, the record BufferPool writes for every dirty page it
+ * flushes, with the log forced after every hundred records. All but the
+ * first are DELTA records. Reports the time and log bytes per record.
+ * <p>
+ * Not part of the test or systemtest targets; run it with "ant benchmark".
+ */
+public class LogWriteBenchmark extends SimpleDbTestBase {
+    private static final int RECORDS = 20000;
+    private static final int RECORDS_PER_FORCE = 100;
+
+    @Test public void updateRecords() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 400, null, null);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage before = (HeapPage) hf.readPage(pid);
+        HeapPage page = new HeapPage(pid, before.getPageData());
+        page.insertTuple(Utility.getHeapTuple(1, 2));
+        File f = File.createTempFile("log", ".log");
+        f.deleteOnExit();
+        LogFile log = new LogFile(f);
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+
+        // warm up the JIT
+        write(log, tid, before, page, RECORDS / 10);
+        long start = System.nanoTime();
+        long length = f.length();
+        write(log, tid, before, page, RECORDS);
+        double micros = (System.nanoTime() - start) / 1e3 / RECORDS;
+        long bytes = (f.length() - length) / RECORDS;
+        System.out.printf("update record of a 4 KB page: %.1f us/record, %d bytes/record%n", micros, bytes);
+        assertTrue(bytes < BufferPool.getPageSize());
+    }
+
+    private static void write(LogFile log, TransactionId tid, Page before, Page after, int n)
+            throws Exception {
+        for (int i = 1; i <= n; i++) {
+            log.logWrite(tid, before, after);
+            if (i % RECORDS_PER_FORCE == 0)
+                log.force();
+        }
+        log.force();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(LogWriteBenchmark.class);
+    }
+}
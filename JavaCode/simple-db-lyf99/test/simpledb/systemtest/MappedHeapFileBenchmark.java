@@ -0,0 +1,92 @@
+package simpledb.systemtest;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares a SeqScan over a MappedHeapFile with one over a plain HeapFile
+ * of the same 1 GB file of two-column tuples, the data HeapFileReadTest
+ * uses. The file was just written, so it is mostly in the operating
+ * system's page cache and the scans time getting pages from the kernel
+ * into the BufferPool rather than the disk. Each file is scanned twice,
+ * alternately, and the second scans are reported.
+ * <p>
+ * Not part of the test or systemtest targets; run it with "ant benchmark".
+ */
+public class MappedHeapFileBenchmark extends SimpleDbTestBase {
+    private static final long FILE_BYTES = 1L << 30;
+    private static final int COLUMNS = 2;
+
+    @Test public void seqScan() throws Exception {
+        File f = File.createTempFile("mapped", ".dat");
+        f.deleteOnExit();
+        int pages = (int) (FILE_BYTES / BufferPool.getPageSize());
+        long tuplesPerPage = writeFile(f, pages);
+
+        HeapFile plain = new HeapFile(f, Utility.getTupleDesc(COLUMNS));
+        HeapFile mapped = new MappedHeapFile(f, Utility.getTupleDesc(COLUMNS));
+        double plainRate = 0;
+        double mappedRate = 0;
+        for (int i = 0; i < 2; i++) {
+            plainRate = scan(plain, tuplesPerPage * pages);
+            mappedRate = scan(mapped, tuplesPerPage * pages);
+        }
+        System.out.printf("SeqScan of %d MB: HeapFile %.0f pages/s, MappedHeapFile %.0f pages/s%n",
+                FILE_BYTES >> 20, pages * plainRate, pages * mappedRate);
+        f.delete();
+    }
+
+    // writes the same full page of random tuples pages times; returns its tuple count
+    private static long writeFile(File f, int pages) throws Exception {
+        Database.getCatalog().addTable(new HeapFile(f, Utility.getTupleDesc(COLUMNS)),
+                SystemTestUtil.getUUID());
+        HeapPage page = new HeapPage(new HeapPageId(f.getAbsoluteFile().hashCode(), 0),
+                HeapPage.createEmptyPageData());
+        Random random = new Random(0);
+        long tuples = 0;
+        while (page.getNumEmptySlots() > 0) {
+            page.insertTuple(Utility.getHeapTuple(new int[] { random.nextInt(), random.nextInt() }));
+            tuples++;
+        }
+        byte[] data = page.getPageData();
+        BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(f), 1 << 20);
+        for (int i = 0; i < pages; i++) {
+            out.write(data);
+        }
+        out.close();
+        return tuples;
+    }
+
+    // returns scans per second, checking that every tuple was seen
+    private static double scan(HeapFile file, long expected) throws Exception {
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        SeqScan scan = new SeqScan(tid, file.getId(), "");
+        scan.open();
+        long count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(expected, count);
+        return 1 / seconds;
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(MappedHeapFileBenchmark.class);
+    }
+}
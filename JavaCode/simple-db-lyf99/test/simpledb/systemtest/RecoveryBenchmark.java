@@ -0,0 +1,59 @@
+package simpledb.systemtest;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Times LogFile.recover after a crash that leaves many transactions
+ * uncommitted, each with updates to pages of its own, interleaved with as
+ * many committed ones. Reports the time recovery takes.
+ * <p>
+ * Not part of the test or systemtest targets; run it with "ant benchmark".
+ */
+public class RecoveryBenchmark extends SimpleDbTestBase {
+    private static final int TRANSACTIONS = 400;
+    private static final int UPDATES_PER_TRANSACTION = 3;
+
+    @Test public void recover() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2 * TRANSACTIONS * 504, null, null);
+        LogFile log = Database.getLogFile();
+
+        TransactionId[] tids = new TransactionId[2 * TRANSACTIONS];
+        for (int i = 0; i < tids.length; i++) {
+            tids[i] = new TransactionId();
+            log.logXactionBegin(tids[i]);
+        }
+        for (int u = 0; u < UPDATES_PER_TRANSACTION; u++) {
+            for (int i = 0; i < tids.length; i++) {
+                HeapPageId pid = new HeapPageId(hf.getId(), i);
+                HeapPage before = (HeapPage) hf.readPage(pid);
+                HeapPage after = new HeapPage(pid, before.getPageData());
+                after.deleteTuple(after.iterator().next());
+                log.logWrite(tids[i], before, after);
+                hf.writePage(after);
+            }
+        }
+        // the even transactions commit; the odd ones are losers
+        for (int i = 0; i < tids.length; i += 2) {
+            log.logCommit(tids[i]);
+        }
+
+        long start = System.nanoTime();
+        log.recover();
+        double millis = (System.nanoTime() - start) / 1e6;
+        System.out.printf("recovery with %d losers: %.0f ms%n", TRANSACTIONS, millis);
+
+        HeapPage loser = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 1));
+        HeapPage winner = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        assertEquals(0, loser.getNumEmptySlots());
+        assertEquals(UPDATES_PER_TRANSACTION, winner.getNumEmptySlots());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(RecoveryBenchmark.class);
+    }
+}
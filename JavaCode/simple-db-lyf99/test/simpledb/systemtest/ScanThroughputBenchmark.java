@@ -0,0 +1,71 @@
+package simpledb.systemtest;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures how fast a SeqScan runs over a HeapFile whose pages are all
+ * cached, so that the cost of BufferPool.getPage and lock acquisition is
+ * what is being timed rather than disk reads. Each page fetch used to sleep
+ * for a millisecond, which capped a single thread at about 1000 pages per
+ * second.
+ * <p>
+ * Not part of the test or systemtest targets; run it with "ant benchmark".
+ */
+public class ScanThroughputBenchmark extends SimpleDbTestBase {
+    private static final int PAGES = 40;
+    private static final int TUPLES_PER_PAGE = 992;  // one int column
+    private static final int SCANS = 50;
+
+    /**
+     * The slowest rate we accept. The old sleep allowed at most 1000 pages,
+     * i.e. under a million tuples, per second.
+     */
+    private static final double MIN_TUPLES_PER_SECOND = 2000000;
+
+    @Test public void cachedSeqScan() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, TUPLES_PER_PAGE * PAGES, null, null);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+
+        // warm the cache and the JIT
+        long expected = scan(tid, f);
+        assertEquals(TUPLES_PER_PAGE * PAGES, expected);
+
+        long start = System.nanoTime();
+        long tuples = 0;
+        for (int i = 0; i < SCANS; i++) {
+            tuples += scan(tid, f);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Database.getBufferPool().transactionComplete(tid);
+
+        double tuplesPerSecond = tuples / seconds;
+        double pagesPerSecond = (double) PAGES * SCANS / seconds;
+        System.out.printf("cached SeqScan: %.0f tuples/s, %.0f pages/s%n",
+                tuplesPerSecond, pagesPerSecond);
+        assertEquals(expected * SCANS, tuples);
+        assertTrue(tuplesPerSecond > MIN_TUPLES_PER_SECOND);
+    }
+
+    private static long scan(TransactionId tid, HeapFile f)
+            throws DbException, TransactionAbortedException {
+        SeqScan scan = new SeqScan(tid, f.getId(), "");
+        scan.open();
+        long count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        return count;
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ScanThroughputBenchmark.class);
+    }
+}